@@ -0,0 +1,49 @@
+package com.habitxp.backend.config;
+
+import com.habitxp.backend.model.CompletionHistory;
+import org.bson.types.Binary;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+
+import java.util.List;
+
+@Configuration
+public class MongoConfig {
+
+    @Bean
+    public MongoCustomConversions mongoCustomConversions() {
+        return new MongoCustomConversions(List.of(
+                new CompletionHistoryToBinary(),
+                new BinaryToCompletionHistory(),
+                new BytesToCompletionHistory()));
+    }
+
+    @WritingConverter
+    static class CompletionHistoryToBinary implements Converter<CompletionHistory, Binary> {
+        @Override
+        public Binary convert(CompletionHistory source) {
+            return new Binary(source.bytes());
+        }
+    }
+
+    @ReadingConverter
+    static class BinaryToCompletionHistory implements Converter<Binary, CompletionHistory> {
+        @Override
+        public CompletionHistory convert(Binary source) {
+            return CompletionHistory.of(source.getData());
+        }
+    }
+
+    // Je nach Codec kommt Subtyp 0 auch als byte[] an
+    @ReadingConverter
+    static class BytesToCompletionHistory implements Converter<byte[], CompletionHistory> {
+        @Override
+        public CompletionHistory convert(byte[] source) {
+            return CompletionHistory.of(source);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.habitxp.backend.config;
+
+import com.habitxp.backend.model.Task;
+import com.habitxp.backend.model.User;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Dokumente von vor der Einführung von {@code @Version} haben kein version-Feld. Spring Data hält
+ * solche Entities beim save für neu und würde sie einfügen statt aktualisieren; deshalb bekommen sie
+ * beim Start einmalig Version 0.
+ */
+@Component
+@RequiredArgsConstructor
+public class VersionBackfill {
+
+    private static final Logger logger = LoggerFactory.getLogger(VersionBackfill.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        try {
+            long filled = backfill();
+            if (filled > 0) {
+                logger.info("Version für {} Dokumente nachgetragen", filled);
+            }
+        } catch (DataAccessException e) {
+            // Nicht am Start scheitern; der nächste Start versucht es erneut
+            logger.warn("Nachtragen der Version fehlgeschlagen: {}", e.getMessage());
+        }
+    }
+
+    long backfill() {
+        long filled = 0;
+        for (Class<?> type : List.of(User.class, Task.class)) {
+            filled += mongoTemplate.updateMulti(Query.query(where("version").is(null)),
+                    new Update().set("version", 0L), type).getModifiedCount();
+        }
+        return filled;
+    }
+}
@@ -0,0 +1,47 @@
+package com.habitxp.backend.controller;
+
+import com.habitxp.backend.dto.SchedulerRunResponse;
+import com.habitxp.backend.scheduler.JobMetrics;
+import com.habitxp.backend.scheduler.JobRunner;
+import com.habitxp.backend.scheduler.MaintenanceRunStore;
+import com.habitxp.backend.service.ConflictRetry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/scheduler")
+@RequiredArgsConstructor
+public class SchedulerController {
+
+    private final MaintenanceRunStore runStore;
+    private final JobRunner jobRunner;
+    private final ConflictRetry conflictRetry;
+
+    @GetMapping("/runs")
+    public ResponseEntity<List<SchedulerRunResponse>> getRuns(@RequestParam(defaultValue = "20") int limit) {
+        int bounded = Math.max(1, Math.min(limit, 200));
+        return ResponseEntity.ok(runStore.recent(bounded).stream().map(SchedulerRunResponse::from).toList());
+    }
+
+    @GetMapping("/runs/{id}")
+    public ResponseEntity<SchedulerRunResponse> getRun(@PathVariable String id) {
+        return runStore.findById(id)
+                .map(SchedulerRunResponse::from)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/jobs")
+    public ResponseEntity<List<JobMetrics.Snapshot>> getJobs() {
+        return ResponseEntity.ok(jobRunner.metrics());
+    }
+
+    // Versionskonflikte pro Operation seit dem Start der Instanz
+    @GetMapping("/conflicts")
+    public ResponseEntity<List<ConflictRetry.Snapshot>> getConflicts() {
+        return ResponseEntity.ok(conflictRetry.metrics());
+    }
+}
@@ -3,9 +3,11 @@ package com.habitxp.backend.controller;
 import com.habitxp.backend.dto.BonusBuyResponse;
 import com.habitxp.backend.dto.BonusPurchaseRequest;
 import com.habitxp.backend.model.Bonus;
+import com.habitxp.backend.service.IdempotencyService;
 import com.habitxp.backend.service.ShopService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
@@ -17,6 +19,7 @@ import java.util.Map;
 public class ShopController {
 
     private final ShopService shopService;
+    private final IdempotencyService idempotency;
 
     // GET /shop/bonuses → Liste aller kaufbaren Boni
     @GetMapping("/bonuses")
@@ -26,8 +29,12 @@ public class ShopController {
 
     // POST /shop/buy → Bonus kaufen
     @PostMapping("/buy")
-    public ResponseEntity<String> buyBonus(@RequestBody BonusPurchaseRequest request) {
-        BonusBuyResponse bbr = shopService.sellBonus(request.getUserId(), request.getBonusId());
+    public ResponseEntity<String> buyBonus(@RequestBody BonusPurchaseRequest request, Authentication auth,
+                                           @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        // Käufer und Idempotenz-Bereich aus dem Login, nicht aus dem Body
+        String userId = auth.getName();
+        BonusBuyResponse bbr = idempotency.execute("buy", userId, idempotencyKey, request.getBonusId(),
+                BonusBuyResponse.class, () -> shopService.sellBonus(userId, request.getBonusId()));
 
         boolean success=bbr.isSuccess();
         boolean otherBonusActive=bbr.isOtherBonusActive();
@@ -1,9 +1,15 @@
 package com.habitxp.backend.controller;
 
+import com.habitxp.backend.dto.BatchCompletionRequest;
+import com.habitxp.backend.dto.BatchCompletionResponse;
 import com.habitxp.backend.dto.CompletionResponse;
 import com.habitxp.backend.dto.StatusResponse;
+import com.habitxp.backend.dto.SyncRequest;
+import com.habitxp.backend.dto.SyncResponse;
+import com.habitxp.backend.model.Completion;
 import com.habitxp.backend.model.Task;
 import com.habitxp.backend.repository.SpaceRepository;
+import com.habitxp.backend.service.IdempotencyService;
 import com.habitxp.backend.service.TaskService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
@@ -21,6 +27,7 @@ public class TaskController {
 
     private final TaskService taskService;
     private final SpaceRepository spaceRepository;
+    private final IdempotencyService idempotency;
 
     @GetMapping
     public ResponseEntity<List<Task>> getTasks(Authentication auth) {
@@ -57,11 +64,38 @@ public class TaskController {
     // --- Habit Tracking --- //
 
     @PostMapping("/{id}/complete")
-    public ResponseEntity<CompletionResponse> completeTask(@PathVariable String id, Authentication auth) {
-        CompletionResponse response = taskService.completeTask(id, auth.getName());
+    public ResponseEntity<CompletionResponse> completeTask(@PathVariable String id, Authentication auth,
+                                                           @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        // Wiederholungen mit demselben Key bekommen die erste Antwort, ohne erneut zu erledigen
+        CompletionResponse response = idempotency.execute("complete", auth.getName(), idempotencyKey, id,
+                CompletionResponse.class, () -> taskService.completeTask(id, auth.getName()));
         return ResponseEntity.ok(response);
     }
 
+    // Mehrere Tasks in einem Request, z.B. eine Morgenroutine; ein Eintrag pro Id plus Level-Up und Profil gesamt
+    @PostMapping("/complete-batch")
+    public ResponseEntity<BatchCompletionResponse> completeTasks(@RequestBody BatchCompletionRequest request, Authentication auth,
+                                                                 @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        List<String> taskIds = request.getTaskIds();
+        BatchCompletionResponse response = idempotency.execute("complete-batch", auth.getName(), idempotencyKey,
+                taskIds == null ? null : String.join(",", taskIds),
+                BatchCompletionResponse.class, () -> taskService.completeTasks(taskIds, auth.getName()));
+        return ResponseEntity.ok(response);
+    }
+
+    // Offline erfasste Erledigungen nach dem Wiederverbinden; mehrfaches Senden derselben Einträge ist unschädlich
+    @PostMapping("/sync")
+    public ResponseEntity<SyncResponse> syncCompletions(@RequestBody SyncRequest request, Authentication auth) {
+        return ResponseEntity.ok(taskService.syncCompletions(request.getCompletions(), auth.getName()));
+    }
+
+    @GetMapping("/{id}/completions")
+    public ResponseEntity<List<Completion>> getCompletions(@PathVariable String id, @RequestParam(defaultValue = "100") int limit,
+                                                           Authentication auth) {
+        int bounded = Math.max(1, Math.min(limit, 500));
+        return ResponseEntity.ok(taskService.getCompletionHistory(id, auth.getName(), bounded));
+    }
+
     @GetMapping("/{id}/status")
     public ResponseEntity<StatusResponse> getTaskStatus(@PathVariable String id) {
         StatusResponse status = taskService.getTaskStatus(id);
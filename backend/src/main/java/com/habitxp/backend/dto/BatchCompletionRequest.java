@@ -0,0 +1,10 @@
+package com.habitxp.backend.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BatchCompletionRequest {
+    private List<String> taskIds;
+}
@@ -0,0 +1,31 @@
+package com.habitxp.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchCompletionResponse {
+    // In der Reihenfolge der angefragten Ids
+    private List<Entry> results;
+    // Zusammengefasst über alle Tasks des Batches
+    private boolean levelup;
+    private int rewardXP;
+    private int rewardCoins;
+    // Profil nach der Gutschrift; null, wenn keiner der Tasks eine Belohnung ausgelöst hat
+    private UserProfileResponse profile;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Entry {
+        private String taskId;
+        // null, wenn der Task nicht gefunden wurde
+        private CompletionResponse result;
+        private String error;
+    }
+}
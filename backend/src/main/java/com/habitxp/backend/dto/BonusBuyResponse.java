@@ -2,8 +2,10 @@ package com.habitxp.backend.dto;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
+@NoArgsConstructor
 @AllArgsConstructor
 public class BonusBuyResponse {
     boolean success;
@@ -2,8 +2,10 @@ package com.habitxp.backend.dto;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
+@NoArgsConstructor
 @AllArgsConstructor
 public class CompletionResponse {
     private boolean success;
@@ -12,4 +14,6 @@ public class CompletionResponse {
     private int remaining;
     private int rewardXP;
     private int rewardCoins;
+    // Profil nach der Gutschrift; null, wenn die Erledigung keine Belohnung ausgelöst hat
+    private UserProfileResponse profile;
 }
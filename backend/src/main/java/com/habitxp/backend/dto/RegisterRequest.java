@@ -9,4 +9,5 @@ public class RegisterRequest {
     private String password;
     private String firstName;
     private String lastName;
+    private String zoneId;
 }
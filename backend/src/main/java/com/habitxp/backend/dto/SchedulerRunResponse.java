@@ -0,0 +1,74 @@
+package com.habitxp.backend.dto;
+
+import com.habitxp.backend.scheduler.MaintenanceRun;
+import com.habitxp.backend.scheduler.PartitionProgress;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+
+@Data
+@AllArgsConstructor
+public class SchedulerRunResponse {
+    private String id;
+    private boolean midnight;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private int partitions;
+    private int finishedPartitions;
+    private long scanned;
+    private long modified;
+    private long deleted;
+    private double usersPerSecond;
+    private List<Partition> progress;
+
+    // Fortschritt einer Partition ohne lastUserId und Knoten-Id; die gehören nicht in eine API-Antwort
+    @Data
+    @AllArgsConstructor
+    public static class Partition {
+        private int index;
+        private long scanned;
+        private long modified;
+        private long deleted;
+        private List<String> completedStages;
+        private Instant startedAt;
+        private Instant finishedAt;
+
+        static Partition from(PartitionProgress progress) {
+            return new Partition(progress.getIndex(), progress.getScanned(), progress.getModified(), progress.getDeleted(),
+                    progress.getCompletedStages(), progress.getStartedAt(), progress.getFinishedAt());
+        }
+    }
+
+    public static SchedulerRunResponse from(MaintenanceRun run) {
+        List<PartitionProgress> progress = run.getPartitions();
+        Instant startedAt = progress.stream().map(PartitionProgress::getStartedAt)
+                .filter(Objects::nonNull).min(Instant::compareTo).orElse(null);
+        long scanned = progress.stream().mapToLong(PartitionProgress::getScanned).sum();
+
+        // Durchsatz bis zum Ende bzw. bis jetzt, falls der Lauf noch läuft
+        double usersPerSecond = 0;
+        if (startedAt != null) {
+            Instant end = run.getFinishedAt() != null ? run.getFinishedAt() : Instant.now();
+            long millis = Math.max(1, Duration.between(startedAt, end).toMillis());
+            usersPerSecond = scanned * 1000.0 / millis;
+        }
+
+        return new SchedulerRunResponse(
+                run.getId(),
+                run.isMidnight(),
+                startedAt,
+                run.getFinishedAt(),
+                progress.size(),
+                (int) progress.stream().filter(p -> p.getFinishedAt() != null).count(),
+                scanned,
+                progress.stream().mapToLong(PartitionProgress::getModified).sum(),
+                progress.stream().mapToLong(PartitionProgress::getDeleted).sum(),
+                usersPerSecond,
+                progress.stream().map(Partition::from).toList()
+        );
+    }
+}
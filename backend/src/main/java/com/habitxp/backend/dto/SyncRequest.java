@@ -0,0 +1,19 @@
+package com.habitxp.backend.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+public class SyncRequest {
+    // Offline gesammelte Erledigungen, Reihenfolge beliebig
+    private List<Entry> completions;
+
+    @Data
+    public static class Entry {
+        private String taskId;
+        // Zeitpunkt auf dem Gerät, lokale Zeit wie lastCompletedAt
+        private LocalDateTime completedAt;
+    }
+}
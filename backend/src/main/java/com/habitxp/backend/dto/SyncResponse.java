@@ -0,0 +1,49 @@
+package com.habitxp.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Nur die Änderungen durch den Sync: neue Stände der betroffenen Tasks, abgelehnte Einträge und die
+ * Gutschrift. Einträge mit Grund "Conflict" soll der Client behalten und erneut senden, alle anderen
+ * sind erledigt und können aus der Warteschlange.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SyncResponse {
+    private int accepted;
+    // Schon früher übertragen, z.B. nach abgebrochenem Sync
+    private int duplicates;
+    private List<Rejection> rejected;
+    private List<TaskDelta> tasks;
+    private boolean levelup;
+    private int rewardXP;
+    private int rewardCoins;
+    // Profil nach der Gutschrift; null, wenn der Sync keine Belohnung ausgelöst hat
+    private UserProfileResponse profile;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Rejection {
+        private String taskId;
+        // Wie vom Client gesendet, damit er den Eintrag zuordnen kann
+        private LocalDateTime completedAt;
+        private String reason;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class TaskDelta {
+        private String taskId;
+        private boolean completed;
+        private int remainingCompletions;
+        private LocalDateTime lastCompletedAt;
+    }
+}
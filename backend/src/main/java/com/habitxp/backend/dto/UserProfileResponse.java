@@ -1,11 +1,15 @@
 package com.habitxp.backend.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.habitxp.backend.model.User;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.util.List;
 
 @Data
+@NoArgsConstructor
 @AllArgsConstructor
 public class UserProfileResponse {
     private String id;
@@ -21,6 +25,28 @@ public class UserProfileResponse {
     private int coins;
     private int streak;
     private int taskLimit;
-    private long currentTasks;
+    // null, wenn das Profil ohne Zählung der Tasks gebaut wurde (z.B. in CompletionResponse)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long currentTasks;
     private List<String> avatars;
+
+    public static UserProfileResponse of(User user, Long currentTasks) {
+        return new UserProfileResponse(
+                user.getId(),
+                user.getUsername(),
+                user.getLevel(),
+                user.getHealth(),
+                user.getMaxHealth(),
+                user.getCurrentXP(),
+                user.getXpGoal(),
+                user.getXpFactor(),
+                user.isXpBonusActive(),
+                user.getXpFactorUntil() != null ? user.getXpFactorUntil().toString() : null,
+                user.getCoins(),
+                user.getStreak(),
+                user.getTaskLimit(),
+                currentTasks,
+                user.getAvatars()
+        );
+    }
 }
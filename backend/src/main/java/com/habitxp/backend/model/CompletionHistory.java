@@ -0,0 +1,197 @@
+package com.habitxp.backend.model;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gepackte Erledigungs-Historie eines Tasks. Aufbau (alle Zahlen als Varint):
+ * <pre>
+ * version | anzahl | wörterbuchgröße | userIds (länge + UTF-8) | je Eintrag: Δsekunden (ZigZag), userIndex, minuten
+ * </pre>
+ * Die Einträge sind aufsteigend sortiert; Zeitstempel auf Sekunden genau. Dekodiert wird erst,
+ * wenn {@link #completions()} aufgerufen wird.
+ */
+public final class CompletionHistory {
+
+    private static final int VERSION = 1;
+
+    private final byte[] data;
+    private List<Completion> decoded;
+
+    private CompletionHistory(byte[] data) {
+        this.data = data;
+    }
+
+    public static CompletionHistory of(byte[] data) {
+        return new CompletionHistory(data);
+    }
+
+    // Gleiche Sekunde desselben Users zählt einmal; der erste Eintrag gewinnt
+    public static CompletionHistory encode(List<Completion> completions) {
+        Map<String, Completion> unique = new HashMap<>();
+        for (Completion completion : completions) {
+            unique.putIfAbsent(key(completion), truncate(completion));
+        }
+        List<Completion> sorted = new ArrayList<>(unique.values());
+        sorted.sort(Comparator.comparing(Completion::getTimestamp));
+
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (Completion completion : sorted) {
+            if (completion.getUserId() != null) {
+                dictionary.putIfAbsent(completion.getUserId(), dictionary.size());
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + sorted.size() * 4);
+        writeVarint(out, VERSION);
+        writeVarint(out, sorted.size());
+        writeVarint(out, dictionary.size());
+        for (String userId : dictionary.keySet()) {
+            byte[] bytes = userId.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        long previous = 0;
+        for (Completion completion : sorted) {
+            long second = completion.getTimestamp().toEpochSecond(ZoneOffset.UTC);
+            writeVarint(out, zigZag(second - previous));
+            // 0 steht für "ohne User"
+            writeVarint(out, completion.getUserId() == null ? 0 : dictionary.get(completion.getUserId()) + 1);
+            writeVarint(out, completion.getDurationMinutes());
+            previous = second;
+        }
+        CompletionHistory history = new CompletionHistory(out.toByteArray());
+        history.decoded = Collections.unmodifiableList(sorted);
+        return history;
+    }
+
+    public byte[] bytes() {
+        return data;
+    }
+
+    // Liest nur den Kopf, ohne die Einträge zu dekodieren
+    public int size() {
+        Cursor cursor = new Cursor(data);
+        cursor.version();
+        return (int) cursor.varint();
+    }
+
+    public synchronized List<Completion> completions() {
+        if (decoded == null) {
+            decoded = Collections.unmodifiableList(decode(data));
+        }
+        return decoded;
+    }
+
+    public CompletionHistory append(List<Completion> more) {
+        List<Completion> all = new ArrayList<>(completions());
+        all.addAll(more);
+        return encode(all);
+    }
+
+    private static String key(Completion completion) {
+        return completion.getTimestamp().toEpochSecond(ZoneOffset.UTC) + "/" + completion.getUserId();
+    }
+
+    private static Completion truncate(Completion completion) {
+        return completion.getTimestamp().getNano() == 0 ? completion : Completion.builder()
+                .timestamp(completion.getTimestamp().withNano(0))
+                .userId(completion.getUserId())
+                .durationMinutes(completion.getDurationMinutes())
+                .build();
+    }
+
+    private static List<Completion> decode(byte[] data) {
+        Cursor cursor = new Cursor(data);
+        cursor.version();
+        int count = (int) cursor.varint();
+        String[] dictionary = new String[(int) cursor.varint()];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = cursor.string((int) cursor.varint());
+        }
+
+        List<Completion> completions = new ArrayList<>(count);
+        long second = 0;
+        for (int i = 0; i < count; i++) {
+            second += unZigZag(cursor.varint());
+            int user = (int) cursor.varint();
+            completions.add(Completion.builder()
+                    .timestamp(LocalDateTime.ofEpochSecond(second, 0, ZoneOffset.UTC))
+                    .userId(user == 0 ? null : dictionary[user - 1])
+                    .durationMinutes((int) cursor.varint())
+                    .build());
+        }
+        return completions;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Cursor {
+        private final byte[] data;
+        private int position;
+
+        Cursor(byte[] data) {
+            this.data = data;
+        }
+
+        void version() {
+            long version = varint();
+            if (version != VERSION) {
+                throw new IllegalStateException("Unknown completion history version " + version);
+            }
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Malformed varint in completion history");
+        }
+
+        String string(int length) {
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CompletionHistory history && Arrays.equals(data, history.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(data);
+    }
+}
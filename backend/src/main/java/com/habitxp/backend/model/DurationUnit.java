@@ -0,0 +1,35 @@
+package com.habitxp.backend.model;
+
+public enum DurationUnit {
+    MIN("min", true),
+    H("h", true),
+    PCS("pcs", false),
+    M("m", false),
+    KM("km", false),
+    L("l", false);
+
+    private final String symbol;
+    private final boolean timeBased;
+
+    DurationUnit(String symbol, boolean timeBased) {
+        this.symbol = symbol;
+        this.timeBased = timeBased;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public boolean isTimeBased() {
+        return timeBased;
+    }
+
+    public static DurationUnit fromSymbol(String symbol) {
+        for (DurationUnit unit : values()) {
+            if (unit.symbol.equals(symbol)) {
+                return unit;
+            }
+        }
+        throw new IllegalArgumentException("Unknown duration unit: " + symbol);
+    }
+}
@@ -0,0 +1,37 @@
+package com.habitxp.backend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Ergebnis eines Requests mit Idempotency-Key (Id = Operation:User:Key). Solange der Request läuft,
+ * ist response leer; Wiederholungen bekommen danach die gespeicherte Antwort, ohne dass die
+ * Operation noch einmal ausgeführt wird.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "idempotency_keys")
+public class IdempotencyRecord {
+
+    @Id
+    private String id;
+    // Ziel des ersten Requests (z.B. Task-Id); derselbe Key für ein anderes Ziel wird abgelehnt
+    private String fingerprint;
+    private boolean done;
+    // Antwort als JSON, so wie sie der Client beim ersten Mal bekommen hat
+    private String response;
+    private Instant createdAt;
+
+    // Laufende Requests verfallen nach kurzer Zeit, fertige nach idempotency.ttl-hours
+    @Indexed(expireAfter = "0s")
+    private Instant expireAt;
+}
@@ -0,0 +1,121 @@
+package com.habitxp.backend.model;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bildet Zeitpunkte auf kompakte Periodenschlüssel ab: Epochentag (DAILY), ISO-Woche ab Montag
+ * (WEEKLY) oder fortlaufender Monat (MONTHLY); NONE hat nur die Periode 0. Schlüssel derselben
+ * Frequenz sind genau dann gleich, wenn beide Zeitpunkte in dieselbe Periode fallen.
+ * <p>
+ * Für jede Zone werden die Grenzen des laufenden lokalen Tages samt Schlüsseln zwischengespeichert,
+ * sodass Abfragen für "jetzt" bis zur nächsten lokalen Mitternacht nur einen Zahlenvergleich kosten.
+ * Unabhängig von der Locale der JVM.
+ */
+public final class PeriodCalendar {
+
+    private static final long HOUR_MILLIS = 3_600_000L;
+
+    private static final Map<ZoneId, Day> DAYS = new ConcurrentHashMap<>();
+
+    // Ein lokaler Tag: [start, end) in Epoch-Millis und die Schlüssel aller Frequenzen
+    private record Day(long start, long end, LocalDate date, int daily, int weekly, int monthly) {
+
+        static Day of(long millis, ZoneId zone) {
+            LocalDate date = LocalDate.ofInstant(Instant.ofEpochMilli(millis), zone);
+            return new Day(
+                    date.atStartOfDay(zone).toInstant().toEpochMilli(),
+                    date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli(),
+                    date, dayKey(date), weekKey(date), monthKey(date));
+        }
+
+        boolean contains(long millis) {
+            return millis >= start && millis < end;
+        }
+
+        int key(Frequency frequency) {
+            return switch (frequency) {
+                case DAILY -> daily;
+                case WEEKLY -> weekly;
+                case MONTHLY -> monthly;
+                default -> 0;
+            };
+        }
+    }
+
+    private PeriodCalendar() {
+    }
+
+    public static int key(Frequency frequency, LocalDate date) {
+        return switch (frequency) {
+            case DAILY -> dayKey(date);
+            case WEEKLY -> weekKey(date);
+            case MONTHLY -> monthKey(date);
+            default -> 0;
+        };
+    }
+
+    public static int key(Frequency frequency, Instant at, ZoneId zone) {
+        return day(at.toEpochMilli(), zone).key(frequency);
+    }
+
+    // Schlüssel der laufenden Periode in der Zone des Servers
+    public static int currentKey(Frequency frequency) {
+        return currentKey(frequency, ZoneId.systemDefault());
+    }
+
+    public static int currentKey(Frequency frequency, ZoneId zone) {
+        return day(System.currentTimeMillis(), zone).key(frequency);
+    }
+
+    public static LocalDate localDate(Instant at, ZoneId zone) {
+        return day(at.toEpochMilli(), zone).date();
+    }
+
+    // Erster Tag der Periode, in die date fällt; NONE hat keinen Anfang
+    public static LocalDate periodStart(Frequency frequency, LocalDate date) {
+        return switch (frequency) {
+            case DAILY -> date;
+            case WEEKLY -> date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTHLY -> date.withDayOfMonth(1);
+            default -> LocalDate.MIN;
+        };
+    }
+
+    // Liegt at in der ersten Stunde des lokalen Tages? Auch an Tagen, an denen die Sommerzeit Mitternacht überspringt
+    public static boolean isFirstHourOfDay(Instant at, ZoneId zone) {
+        long millis = at.toEpochMilli();
+        return millis - day(millis, zone).start() < HOUR_MILLIS;
+    }
+
+    static int dayKey(LocalDate date) {
+        return (int) date.toEpochDay();
+    }
+
+    // Der 1.1.1970 war ein Donnerstag; +3 verschiebt die Wochengrenze auf Montag
+    static int weekKey(LocalDate date) {
+        return (int) Math.floorDiv(date.toEpochDay() + 3, 7);
+    }
+
+    static int monthKey(LocalDate date) {
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+
+    private static Day day(long millis, ZoneId zone) {
+        Day cached = DAYS.get(zone);
+        if (cached != null && cached.contains(millis)) {
+            return cached;
+        }
+        Day day = Day.of(millis, zone);
+        // Nur vorwärts ersetzen, damit Abfragen für vergangene Zeitpunkte den heutigen Tag nicht verdrängen
+        if (cached == null || day.start() > cached.start()) {
+            DAYS.put(zone, day);
+        }
+        return day;
+    }
+}
@@ -8,33 +8,39 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.temporal.WeekFields;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Locale;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "tasks")
+@CompoundIndex(name = "deadline_completed_user", def = "{'Deadline': 1, 'isCompleted': 1, 'userId': 1}")
+@CompoundIndex(name = "completed_period", def = "{'frequency': 1, 'periodKey': 1}", partialFilter = "{'isCompleted': true}")
 public class Task {
 
     @Id
     private String id;
     private String userId;
 
+    // Optimistisches Locking: save schlägt fehl, wenn seit dem Lesen jemand anderes geschrieben hat (siehe ConflictRetry)
+    @Version
+    private Long version;
+
     @NotBlank
     private String title;
     @NotNull
     private String duration;
+    private TaskDuration parsedDuration; // aus duration abgeleitet, siehe parseDuration()
     private LocalDate Deadline;
     @Nonnull
     private Integer times; // Anzahl Wiederholungen pro Zeitintervall
@@ -47,35 +53,59 @@ public class Task {
 
     private String spaceId;
 
+    // Nur die Erledigungen der laufenden Periode; die vollständige Historie liegt in task_completions
     @Builder.Default
+    @Field("periodCompletions")
     private List<Completion> completions = new ArrayList<>();
+    private LocalDateTime lastCompletedAt;
+
+    // Zähler der laufenden Periode, damit Statusabfragen nicht über die Erledigungen laufen
+    private Integer periodKey;
+    private int periodCount;
 
     public void edit(String title, String duration, Frequency frequency) {
         this.title = title;
         this.duration = duration;
         this.frequency = frequency;
+        parseDuration();
+    }
+
+    // Beim Anlegen und Bearbeiten aufrufen; wirft IllegalArgumentException bei ungültiger Angabe
+    public void parseDuration() {
+        this.parsedDuration = TaskDuration.parse(duration);
     }
 
     public boolean markAsCompleted(User user) {
         LocalDateTime now = LocalDateTime.now();
-        int durationMinutes = parseDurationToMinutes(this.duration);
+        if (parsedDuration == null) {
+            // Tasks, die vor dem Parsen beim Speichern angelegt wurden
+            parseDuration();
+        }
 
-        // Cleanup old completions after 90 Days
-        cleanOldCompletions(now);
+        retainCurrentPeriod();
 
         // Check Time since last completion
-        Completion lastCompletion = getLastCompletionForUser(user.getId());
+        LocalDateTime lastCompletion = getLastCompletionTime();
 
-        if (lastCompletion != null && isCooldownStillActive(lastCompletion, now, durationMinutes)) {
+        if (lastCompletion != null && isCooldownStillActive(lastCompletion, now)) {
+            return false;
+        }
+        // Periode schon erfüllt: nicht öfter als times zählen
+        if (isPeriodCompleted()) {
             return false;
         }
 
+        periodCount = currentPeriodCount() + 1;
+        periodKey = PeriodCalendar.key(frequency, now.toLocalDate());
+
         // Add new Completion
         completions.add(Completion.builder()
                 .timestamp(now)
                 .userId(user.getId())
-                .durationMinutes(durationMinutes)
+                .durationMinutes(parsedDuration.minutes())
                 .build());
+        lastCompletedAt = now;
+        trimToTimes();
 
         if (isPeriodCompleted()) {
             this.isCompleted = true;
@@ -86,127 +116,153 @@ public class Task {
         return true;
     }
 
-    public boolean isPeriodCompleted() {
-        LocalDate now = LocalDate.now();
-
-        List<Completion> currentPeriodCompletions = completions.stream()
-                .filter(c -> isInCurrentPeriod(c.getTimestamp().toLocalDate()))
-                .toList();
+    /**
+     * Sortiert eine offline erfasste Erledigung zum Zeitpunkt at in die laufende Periode ein. Anders als
+     * {@link #markAsCompleted} muss at nicht die jüngste sein; der Cooldown gilt dann zu beiden Nachbarn.
+     * false, wenn at außerhalb der laufenden Periode liegt oder mit einem Nachbarn kollidiert.
+     */
+    public boolean mergeCompletion(String userId, LocalDateTime at) {
+        if (parsedDuration == null) {
+            parseDuration();
+        }
+        if (PeriodCalendar.key(frequency, at.toLocalDate()) != PeriodCalendar.currentKey(frequency)) {
+            return false;
+        }
 
-        return currentPeriodCompletions.size() >= times;
-    }
+        retainCurrentPeriod();
 
-    public int remainingCompletions() {
-        if (isCompleted) {
-            return 0;
+        LocalDateTime previous = null;
+        LocalDateTime next = null;
+        List<LocalDateTime> known = new ArrayList<>(completions.size() + 1);
+        completions.forEach(completion -> known.add(completion.getTimestamp()));
+        if (lastCompletedAt != null) {
+            known.add(lastCompletedAt);
+        }
+        for (LocalDateTime timestamp : known) {
+            if (!timestamp.isAfter(at)) {
+                previous = previous == null || timestamp.isAfter(previous) ? timestamp : previous;
+            } else {
+                next = next == null || timestamp.isBefore(next) ? timestamp : next;
+            }
+        }
+        if ((previous != null && isCooldownStillActive(previous, at)) || (next != null && isCooldownStillActive(at, next))) {
+            return false;
+        }
+        if (isPeriodCompleted()) {
+            return false;
         }
 
-        List<Completion> currentPeriodCompletions = completions.stream()
-                .filter(c -> isInCurrentPeriod(c.getTimestamp().toLocalDate()))
-                .toList();
+        periodCount = currentPeriodCount() + 1;
+        periodKey = PeriodCalendar.currentKey(frequency);
+        completions.add(Completion.builder()
+                .timestamp(at)
+                .userId(userId)
+                .durationMinutes(parsedDuration.minutes())
+                .build());
+        completions.sort(Comparator.comparing(Completion::getTimestamp));
+        if (lastCompletedAt == null || at.isAfter(lastCompletedAt)) {
+            lastCompletedAt = at;
+        }
+        trimToTimes();
+        updateCompletionStatus();
+        return true;
+    }
 
-        return Math.max(0, times - currentPeriodCompletions.size());
+    public Completion latestCompletion() {
+        return completions.isEmpty() ? null : completions.get(completions.size() - 1);
     }
 
-    public void updateCompletionStatus() {
-        if (completions.isEmpty()) {
-            this.isCompleted = false;
-            return;
+    // Wirft Erledigungen vergangener Perioden vom Task; sie stehen bereits in der Historie
+    public void retainCurrentPeriod() {
+        int current = PeriodCalendar.currentKey(frequency);
+        List<Completion> kept = new ArrayList<>(completions.size() + 1);
+        for (Completion completion : completions) {
+            if (PeriodCalendar.key(frequency, completion.getTimestamp().toLocalDate()) == current) {
+                kept.add(completion);
+            }
         }
+        completions = kept;
+        trimToTimes();
+    }
 
-        Completion lastCompletion = completions.stream()
-                .filter(completion -> completion.getUserId() != null)
-                .max((completion1, completion2) -> completion1.getTimestamp().compareTo(completion2.getTimestamp()))
-                .orElse(null);
+    // Verpasste Deadline: die laufende Periode beginnt von vorn
+    public void resetPeriod() {
+        completions = new ArrayList<>();
+        periodCount = 0;
+        isCompleted = false;
+    }
 
-        if (lastCompletion == null) {
-            this.isCompleted = false;
-            return;
+    // Die Periode der letzten Erledigung liegt vor der von day; ohne Zähler und ohne Erledigung unbekannt (false)
+    public boolean periodOverOn(LocalDate day) {
+        if (frequency == null || frequency == Frequency.NONE) {
+            return false;
         }
-
-        LocalDate lastCompletionDate = lastCompletion.getTimestamp().toLocalDate();
-        boolean stillInSamePeriod = isInCurrentPeriod(lastCompletionDate);
-
-        if (!stillInSamePeriod) {
-            this.isCompleted = false;
-        } else {
-            this.isCompleted = isPeriodCompleted();
+        if (periodKey != null) {
+            return periodKey < PeriodCalendar.key(frequency, day);
         }
+        return lastCompletedAt != null && lastCompletedAt.toLocalDate().isBefore(PeriodCalendar.periodStart(frequency, day));
     }
 
-    /* ### HILFSMETHODEN ### */
-
-    private static final Pattern TIME_UNIT_PATTERN = Pattern.compile("^\\d+(min|h)$");
-    private static final Pattern NON_TIME_UNIT_PATTERN = Pattern.compile("^\\d+[.,]?\\d*(pcs|m|km|l)$");
+    public boolean isPeriodCompleted() {
+        return currentPeriodCount() >= times;
+    }
 
-    private boolean isNonTimeBasedDuration(String duration) {
-        String normalized = duration.trim().toLowerCase().replace(",", ".");
-        return NON_TIME_UNIT_PATTERN.matcher(normalized).matches();
+    public int remainingCompletions() {
+        if (isCompleted) {
+            return 0;
+        }
+        return Math.max(0, times - currentPeriodCount());
     }
 
-    private void cleanOldCompletions(LocalDateTime now) {
-        completions = completions.stream()
-                .filter(c -> c.getTimestamp().isAfter(now.minusDays(90)))
-                .collect(Collectors.toList());
+    public void updateCompletionStatus() {
+        this.isCompleted = isPeriodCompleted();
     }
 
-    private Completion getLastCompletionForUser(String userId) {
-        return completions.stream()
-                .filter(c -> c.getUserId().equals(userId))
-                .max(Comparator.comparing(Completion::getTimestamp))
-                .orElse(null);
+    /* ### HILFSMETHODEN ### */
+
+    // Mehr als times Einträge braucht keine Periode; hält einmalige Tasks klein
+    private void trimToTimes() {
+        if (times != null && completions.size() > times) {
+            completions.subList(0, completions.size() - times).clear();
+        }
     }
 
-    private boolean isCooldownStillActive(Completion last, LocalDateTime now, int durationMinutes) {
-        if (isNonTimeBasedDuration(this.duration)) {
-            if (frequency == Frequency.DAILY) {
-                return now.isBefore(last.getTimestamp().plusMinutes(1));
-            } else {
-                return last.getTimestamp().toLocalDate().isEqual(now.toLocalDate());
+    private LocalDateTime getLastCompletionTime() {
+        if (lastCompletedAt != null) {
+            return lastCompletedAt;
+        }
+        // Ältere Tasks ohne lastCompletedAt
+        LocalDateTime last = null;
+        for (Completion completion : completions) {
+            if (last == null || completion.getTimestamp().isAfter(last)) {
+                last = completion.getTimestamp();
             }
-        } else {
-            return now.isBefore(last.getTimestamp().plusMinutes(durationMinutes));
         }
+        return last;
     }
 
-    private boolean isInCurrentPeriod(LocalDate date) {
-        LocalDate now = LocalDate.now();
-
-        switch (frequency) {
-            case DAILY:
-                return now.isEqual(date);
-            case WEEKLY:
-                WeekFields weekFields = WeekFields.of(Locale.getDefault());
-                return now.get(weekFields.weekOfWeekBasedYear()) == date.get(weekFields.weekOfWeekBasedYear()) && now.getYear() == date.getYear();
-            case MONTHLY:
-                return now.getMonth() == date.getMonth() && now.getYear() == date.getYear();
-            case NONE:
-                return true;
-            default:
-                return false;
+    private boolean isCooldownStillActive(LocalDateTime last, LocalDateTime now) {
+        if (parsedDuration.isTimeBased()) {
+            return now.isBefore(last.plusMinutes(parsedDuration.minutes()));
+        } else if (frequency == Frequency.DAILY) {
+            return now.isBefore(last.plusMinutes(1));
+        } else {
+            return last.toLocalDate().isEqual(now.toLocalDate());
         }
     }
 
-    private int parseDurationToMinutes(String duration) {
-        String d = duration.trim().toLowerCase().replace(",", ".");
-
-        try {
-            if (d.endsWith("h")) {
-                String numeric = d.replace("h", "").trim();
-                double hours = Double.parseDouble(numeric);
-                return (int) (hours * 60);
-            } else if (d.endsWith("min")) {
-                String numeric = d.replace("min", "").trim();
-                double minutes = Double.parseDouble(numeric);
-                return (int) minutes;
-            } else if (isNonTimeBasedDuration(d)) {
-                return 1;
+    private int currentPeriodCount() {
+        int current = PeriodCalendar.currentKey(frequency);
+        if (periodKey == null) {
+            // Task aus der Zeit vor den Zählern: einmalig aus der Liste der Periode ableiten
+            int count = 0;
+            for (Completion completion : completions) {
+                if (PeriodCalendar.key(frequency, completion.getTimestamp().toLocalDate()) == current) {
+                    count++;
+                }
             }
-
-            throw new IllegalArgumentException("Invalid duration format: " + duration);
-
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("Invalid number in duration: " + duration, e);
+            return count;
         }
+        return periodKey == current ? periodCount : 0;
     }
 } 
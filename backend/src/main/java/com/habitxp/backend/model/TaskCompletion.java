@@ -0,0 +1,54 @@
+package com.habitxp.backend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Eine Erledigung in der Historie. Die Id ergibt sich aus Task und Zeitpunkt,
+ * damit ein wiederholtes Einfügen (z.B. bei der Migration) keine Dubletten erzeugt.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "task_completions")
+@CompoundIndexes({
+        @CompoundIndex(name = "task_timestamp", def = "{'taskId': 1, 'timestamp': -1}"),
+        @CompoundIndex(name = "user_timestamp", def = "{'userId': 1, 'timestamp': -1}")
+})
+public class TaskCompletion {
+
+    @Id
+    private String id;
+    private String taskId;
+    private String userId;
+    private LocalDateTime timestamp;
+    private int durationMinutes;
+
+    public static TaskCompletion of(String taskId, Completion completion) {
+        return TaskCompletion.builder()
+                .id(taskId + ":" + completion.getTimestamp().toInstant(ZoneOffset.UTC).toEpochMilli())
+                .taskId(taskId)
+                .userId(completion.getUserId())
+                .timestamp(completion.getTimestamp())
+                .durationMinutes(completion.getDurationMinutes())
+                .build();
+    }
+
+    public Completion toCompletion() {
+        return Completion.builder()
+                .timestamp(timestamp)
+                .userId(userId)
+                .durationMinutes(durationMinutes)
+                .build();
+    }
+}
@@ -0,0 +1,37 @@
+package com.habitxp.backend.model;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Geparste Form von {@link Task#getDuration()}, z.B. "1,5h" oder "3pcs". Wird beim Anlegen und
+ * Bearbeiten einmal berechnet, damit das Erledigen keine Strings mehr verarbeitet.
+ * {@code minutes} ist die angerechnete Dauer; Mengenangaben zählen als eine Minute.
+ */
+public record TaskDuration(DurationUnit unit, double amount, int minutes) {
+
+    private static final Pattern FORMAT = Pattern.compile("^(\\d+(?:\\.\\d*)?)\\s*(min|h|pcs|km|m|l)$");
+
+    public static TaskDuration parse(String duration) {
+        if (duration == null) {
+            throw new IllegalArgumentException("Invalid duration format: null");
+        }
+        Matcher matcher = FORMAT.matcher(duration.trim().toLowerCase().replace(",", "."));
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid duration format: " + duration);
+        }
+
+        double amount = Double.parseDouble(matcher.group(1));
+        DurationUnit unit = DurationUnit.fromSymbol(matcher.group(2));
+        int minutes = switch (unit) {
+            case MIN -> (int) amount;
+            case H -> (int) (amount * 60);
+            default -> 1;
+        };
+        return new TaskDuration(unit, amount, minutes);
+    }
+
+    public boolean isTimeBased() {
+        return unit.isTimeBased();
+    }
+}
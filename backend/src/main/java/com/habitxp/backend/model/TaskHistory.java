@@ -0,0 +1,36 @@
+package com.habitxp.backend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Gepackte Historie eines Tasks (Id = Task-Id), gespeichert als ein Binärfeld.
+ * count und newest liegen zusätzlich lesbar daneben, damit Abfragen nicht dekodieren müssen.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "task_histories")
+public class TaskHistory {
+
+    @Id
+    private String id;
+    @Indexed
+    private String userId;
+    private int count;
+    private LocalDateTime oldest;
+    private LocalDateTime newest;
+    private CompletionHistory completions;
+
+    // Nur gesetzt, wenn scheduler.archive.retention-days > 0; Mongo löscht das Archiv dann per TTL
+    @Indexed(expireAfter = "0s")
+    private LocalDateTime expireAt;
+}
@@ -5,12 +5,17 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 
 @Data
@@ -18,17 +23,27 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "users")
+@CompoundIndex(name = "zone_id", def = "{'zoneId': 1, '_id': 1}")
 public class User {
 
+    public static final int COIN_PENALTY = 5;
+    public static final int HEALTH_PENALTY = 2;
+
     @Id
     private String id;
 
+    @Version
+    private Long version;
+
     private String firstName;
     private String lastName;
     private String username;
     private String email;
     private String password;
 
+    // IANA-Zone (z.B. "Europe/Berlin"); bestimmt, wann für den User Mitternacht ist. null = Zone des Servers
+    private String zoneId;
+
     private int maxHealth;
     private int health;
     private int coins;
@@ -36,11 +51,15 @@ public class User {
     private int streak;
     private LocalDate lastStreakUpdate;
     private boolean streakBroken;
+    // Kleinste Frequenz der eigenen Tasks; bestimmt, wie oft der Streak wachsen kann. Pflegt CompletionEngine
+    private Frequency streakFrequency;
     private boolean StreakFreezeActive;
+    @Indexed(sparse = true)
     private Instant StreakFreezeUntil;
 
     @Builder.Default
     private int xpFactor = 1;
+    @Indexed(sparse = true)
     private Instant xpFactorUntil;
     private boolean xpBonusActive;
 
@@ -51,6 +70,15 @@ public class User {
 
     private int taskLimit;
 
+    // Lazy-Modus: letzter lokaler Tag, dessen Mitternachts-Regeln für den User schon angewendet sind
+    private LocalDate lastEvaluatedDate;
+
+    // Id des letzten Wartungslaufs, der diesen User geschrieben hat; verhindert doppelte Strafen beim Fortsetzen
+    private String lastMaintenanceRun;
+
+    // Stages mit eigenem Schreibweg (updateMany, Deadline-Aggregation): Stage-Name -> Id des letzten Laufs, der sie angewendet hat
+    private Map<String, String> maintenanceStages;
+
     @Builder.Default
     private List<String> spaceIds = new ArrayList<>();
     @Builder.Default
@@ -61,6 +89,10 @@ public class User {
     @Builder.Default
     private List<String> banner = new ArrayList<>();
 
+    public static boolean isSupportedZone(String zoneId) {
+        return zoneId == null || ZoneId.getAvailableZoneIds().contains(zoneId);
+    }
+
     public void addXP(int baseXP) {
         int gainedXP = baseXP * xpFactor;
         this.xp += gainedXP;
@@ -73,8 +105,8 @@ public class User {
     public int calculateLevel() {
         int tempLevel = 0;
         double xpSum = 0;
-        while (xp >= xpSum + Math.round(20 * Math.pow(1.2, tempLevel))) {
-            xpSum += Math.round(20 * Math.pow(1.2, tempLevel));
+        while (xp >= xpSum + xpGoalFor(tempLevel)) {
+            xpSum += xpGoalFor(tempLevel);
             tempLevel++;
         }
         this.level = tempLevel;
@@ -84,16 +116,32 @@ public class User {
     public int calculateCurrentXP() {
         double xpSum = 0;
         for (int i = 0; i < level; i++) {
-            xpSum += Math.round(20 * Math.pow(1.2, i));
+            xpSum += xpGoalFor(i);
         }
         return this.currentXP = (int) (xp - xpSum);
     }
 
     public int calculateXPGoal() {
-        this.xpGoal = (int) Math.round(20 * Math.pow(1.2, level));
+        this.xpGoal = (int) xpGoalFor(level);
         return xpGoal;
     }
 
+    // XP, die von level zum nächsten Level fehlen
+    public static long xpGoalFor(int level) {
+        return Math.round(20 * Math.pow(1.2, level));
+    }
+
+    // Gesamt-XP, ab der Level i beginnt, für alle Level, die ein int-Konto erreichen kann
+    public static List<Long> levelThresholds() {
+        List<Long> thresholds = new ArrayList<>();
+        long sum = 0;
+        for (int level = 0; sum <= Integer.MAX_VALUE; level++) {
+            thresholds.add(sum);
+            sum += xpGoalFor(level);
+        }
+        return thresholds;
+    }
+
     public boolean xpFactorReset() {
         if (xpFactorUntil != null && Instant.now().isAfter(xpFactorUntil)) {
             xpFactor = 1;
@@ -116,16 +164,16 @@ public class User {
     }
 
     public void coinPenalty() {
-        if (coins >= 5) {
-            coins -= 5;
+        if (coins >= COIN_PENALTY) {
+            coins -= COIN_PENALTY;
         } else {
             coins = 0;
         }
     }
 
     public void healthpenalty() {
-        if (health >= 2) {
-            health -= 2;
+        if (health >= HEALTH_PENALTY) {
+            health -= HEALTH_PENALTY;
         } else {
             health = 0;
         }
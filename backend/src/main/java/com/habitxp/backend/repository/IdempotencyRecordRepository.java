@@ -0,0 +1,7 @@
+package com.habitxp.backend.repository;
+
+import com.habitxp.backend.model.IdempotencyRecord;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface IdempotencyRecordRepository extends MongoRepository<IdempotencyRecord, String> {
+}
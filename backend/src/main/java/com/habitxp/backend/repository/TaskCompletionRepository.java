@@ -0,0 +1,13 @@
+package com.habitxp.backend.repository;
+
+import com.habitxp.backend.model.TaskCompletion;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+public interface TaskCompletionRepository extends MongoRepository<TaskCompletion, String> {
+    List<TaskCompletion> findByTaskIdOrderByTimestampDesc(String taskId, Pageable pageable);
+
+    void deleteByTaskId(String taskId);
+}
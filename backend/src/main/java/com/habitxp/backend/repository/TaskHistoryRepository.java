@@ -0,0 +1,7 @@
+package com.habitxp.backend.repository;
+
+import com.habitxp.backend.model.TaskHistory;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface TaskHistoryRepository extends MongoRepository<TaskHistory, String> {
+}
@@ -2,7 +2,10 @@ package com.habitxp.backend.repository;
 
 import com.habitxp.backend.model.Task;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 
 public interface TaskRepository extends MongoRepository<Task, String> {
@@ -13,4 +16,7 @@ public interface TaskRepository extends MongoRepository<Task, String> {
     List<Task> findByUserIdAndCompleted(String userId, boolean completed);
 
     long countByUserId(String userId);
+
+    @Query("{ 'Deadline': { '$lt': ?0 }, 'userId': { '$in': ?1 } }")
+    List<Task> findOverdueTasks(LocalDate today, Collection<String> userIds);
 }
@@ -0,0 +1,121 @@
+package com.habitxp.backend.scheduler;
+
+import com.mongodb.bulk.BulkWriteResult;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sammelt Schreiboperationen auf eine Collection und schickt sie als ungeordneten
+ * Bulk-Write ab, sobald {@code batchSize} Operationen zusammengekommen sind.
+ * Am Ende eines Laufs muss {@link #flush()} (bzw. {@link #close()}) den Rest abschicken.
+ * Mit {@link #fencedBy(BooleanSupplier)} wird vor jedem Flush geprüft, ob der Lease noch gehalten wird,
+ * mit {@link #throttledBy(MongoThrottle)} wartet jeder Flush auf einen freien Mongo-Slot.
+ * Bei versionierten Entities erhöht jedes Update die {@code @Version} wie updateFirst/updateMulti
+ * des MongoTemplate, damit ein paralleles save mit altem Stand scheitert statt zu überschreiben.
+ */
+public class BulkWriter implements AutoCloseable {
+
+    private final MongoTemplate mongoTemplate;
+    private final Class<?> entityType;
+    private final int batchSize;
+    private final String versionField;
+
+    private BooleanSupplier fence = () -> true;
+    private MongoThrottle throttle;
+    private BulkOperations operations;
+    private int pending;
+
+    private long matched;
+    private long modified;
+    private long deleted;
+
+    public BulkWriter(MongoTemplate mongoTemplate, Class<?> entityType, int batchSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.entityType = entityType;
+        this.batchSize = Math.max(1, batchSize);
+        this.versionField = Arrays.stream(entityType.getDeclaredFields())
+                .filter(field -> field.isAnnotationPresent(Version.class))
+                .map(Field::getName)
+                .findFirst().orElse(null);
+    }
+
+    public BulkWriter fencedBy(BooleanSupplier fence) {
+        this.fence = fence;
+        return this;
+    }
+
+    public BulkWriter throttledBy(MongoThrottle throttle) {
+        this.throttle = throttle;
+        return this;
+    }
+
+    public BulkWriter updateOne(Query query, UpdateDefinition update) {
+        if (versionField != null && !update.modifies(versionField)) {
+            update.inc(versionField);
+        }
+        operations().updateOne(query, update);
+        return added();
+    }
+
+    public BulkWriter deleteOne(Query query) {
+        operations().remove(query);
+        return added();
+    }
+
+    public void flush() {
+        if (pending == 0) {
+            return;
+        }
+        if (!fence.getAsBoolean()) {
+            // Ein anderer Knoten hat die Arbeit übernommen; nichts mehr schreiben
+            operations = null;
+            pending = 0;
+            throw new IllegalStateException("Scheduler-Lease verloren, Batch verworfen");
+        }
+        BulkOperations batch = operations;
+        BulkWriteResult result = throttle != null ? throttle.call(batch::execute) : batch.execute();
+        matched += result.getMatchedCount();
+        modified += result.getModifiedCount();
+        deleted += result.getDeletedCount();
+        operations = null;
+        pending = 0;
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    public long getMatched() {
+        return matched;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    private BulkOperations operations() {
+        if (operations == null) {
+            operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, entityType);
+        }
+        return operations;
+    }
+
+    private BulkWriter added() {
+        if (++pending >= batchSize) {
+            flush();
+        }
+        return this;
+    }
+}
@@ -0,0 +1,154 @@
+package com.habitxp.backend.scheduler;
+
+import com.habitxp.backend.model.Frequency;
+import com.habitxp.backend.model.Space;
+import com.habitxp.backend.model.Task;
+import com.habitxp.backend.model.User;
+import com.mongodb.client.result.UpdateResult;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Alternative zur {@link DeadlineStage}: Die Entscheidung "hat der User einen überfälligen Task erledigt"
+ * fällt in einer einzigen Aggregation in Mongo. Überfällige Tasks werden pro userId gruppiert und mit
+ * dem User verknüpft; in die JVM kommt pro betroffenem User nur seine Id und ob er bestraft wird.
+ * Zurücksetzen und Löschen der Tasks laufen danach als updateMany bzw. Bulk-Write pro Seite.
+ */
+@Component
+@RequiredArgsConstructor
+public class DeadlineAggregation {
+
+    public static final String STAGE = "DeadlineAggregation";
+
+    private final MongoTemplate mongoTemplate;
+
+    public record Result(long users, long penalized, long reset, long deleted) {
+    }
+
+    public Result run(MaintenanceTick tick, KeyRange range, String runId, int pageSize, MongoThrottle throttle, BooleanSupplier fence) {
+        List<String> page = new ArrayList<>();
+        List<String> penalize = new ArrayList<>();
+        long[] totals = new long[4];
+
+        try (Stream<Document> outcomes = mongoTemplate.aggregateStream(pipeline(tick, range, pageSize),
+                mongoTemplate.getCollectionName(Task.class), Document.class)) {
+            outcomes.forEach(outcome -> {
+                page.add(outcome.getString("_id"));
+                if (outcome.getBoolean("penalize", false)) {
+                    penalize.add(outcome.getString("_id"));
+                }
+                if (page.size() >= pageSize) {
+                    apply(tick, runId, page, penalize, throttle, fence, totals);
+                }
+            });
+        }
+        if (!page.isEmpty()) {
+            apply(tick, runId, page, penalize, throttle, fence, totals);
+        }
+        return new Result(totals[0], totals[1], totals[2], totals[3]);
+    }
+
+    Aggregation pipeline(MaintenanceTick tick, KeyRange range, int pageSize) {
+        Object today = mongoTemplate.getConverter().convertToMongoType(tick.today());
+        Object now = mongoTemplate.getConverter().convertToMongoType(tick.now());
+
+        Document overdue = new Document("Deadline", new Document("$lt", today));
+        overdue.putAll(range.userIds().getCriteriaObject());
+
+        // Im User: Zonen-Bucket und ob ein (noch nicht abgelaufener) Streak-Freeze schützt
+        List<Document> userPipeline = new ArrayList<>();
+        userPipeline.add(new Document("$match", new Document("$expr", new Document("$eq", List.of("$_id", "$$uid")))));
+        tick.userFilter().ifPresent(filter -> userPipeline.add(new Document("$match", filter.getCriteriaObject())));
+        userPipeline.add(new Document("$project", new Document("frozen", new Document("$and", List.of(
+                new Document("$eq", List.of("$StreakFreezeActive", true)),
+                new Document("$gte", List.of(new Document("$ifNull", List.of("$StreakFreezeUntil", now)), now)))))));
+
+        List<AggregationOperation> stages = List.of(
+                stage("$match", overdue),
+                stage("$group", new Document("_id", "$userId").append("completedAny", new Document("$max", "$isCompleted"))),
+                stage("$lookup", new Document("from", mongoTemplate.getCollectionName(User.class))
+                        // userIds, die keine ObjectId sind, finden einfach keinen User
+                        .append("let", new Document("uid", new Document("$convert", new Document("input", "$_id")
+                                .append("to", "objectId").append("onError", null).append("onNull", null))))
+                        .append("pipeline", userPipeline)
+                        .append("as", "user")),
+                stage("$unwind", new Document("path", "$user")),
+                stage("$project", new Document("penalize", new Document("$not", List.of(
+                        new Document("$or", List.of("$completedAny", "$user.frozen")))))));
+
+        return Aggregation.newAggregation(stages)
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).cursorBatchSize(pageSize).build());
+    }
+
+    private void apply(MaintenanceTick tick, String runId, List<String> page, List<String> penalize,
+                       MongoThrottle throttle, BooleanSupplier fence, long[] totals) {
+        if (!fence.getAsBoolean()) {
+            throw new IllegalStateException("Scheduler-Lease verloren, Seite verworfen");
+        }
+
+        Criteria openOverdue = where("Deadline").lt(tick.today()).and("isCompleted").ne(true).and("userId").in(List.copyOf(page));
+
+        // Einmalige Tasks: Space-Referenz entfernen, dann löschen
+        Query oneTime = Query.query(Criteria.where("frequency").is(Frequency.NONE).andOperator(openOverdue));
+        oneTime.fields().include("_id", "spaceId");
+        List<Task> expired = throttle.call(() -> mongoTemplate.find(oneTime, Task.class));
+        if (!expired.isEmpty()) {
+            try (BulkWriter spaces = new BulkWriter(mongoTemplate, Space.class, expired.size()).throttledBy(throttle)) {
+                expired.stream().filter(task -> task.getSpaceId() != null).forEach(task ->
+                        spaces.updateOne(Query.query(where("_id").is(task.getSpaceId())), new Update().pull("taskIds", task.getId())));
+            }
+            List<String> ids = expired.stream().map(Task::getId).toList();
+            totals[3] += throttle.call(() -> mongoTemplate.remove(Query.query(where("_id").in(ids)), Task.class)).getDeletedCount();
+        }
+
+        // Wiederkehrende Tasks zurücksetzen
+        Query recurring = Query.query(Criteria.where("frequency").ne(Frequency.NONE).andOperator(openOverdue));
+        UpdateResult reset = throttle.call(() -> mongoTemplate.updateMulti(recurring, TaskUpdates.resetPeriod(), Task.class));
+        totals[2] += reset.getModifiedCount();
+
+        String marker = UserUpdates.stageMarker(STAGE);
+        // Strafe; die eigene Markierung verhindert eine zweite Strafe, falls die Seite nach einem Abbruch erneut läuft.
+        // Nicht lastMaintenanceRun: das setzt der JVM-Pass desselben Laufs schon für HP-Strafe oder Streak-Reset
+        if (!penalize.isEmpty()) {
+            Query users = Query.query(where("_id").in(List.copyOf(penalize)).and(marker).ne(runId));
+            UpdateResult penalized = throttle.call(() -> mongoTemplate.updateMulti(users,
+                    UserUpdates.missedDeadlinePenalty().set(marker).toValue(runId), User.class));
+            totals[1] += penalized.getModifiedCount();
+        }
+
+        // Erledigte überfällige Tasks, deren Periode vorbei ist: Sie zählten für diese Mitternacht, danach beginnt eine
+        // neue Periode. Vorher die übrigen User der Seite markieren, damit ein fortgesetzter Lauf sie nicht doch bestraft
+        List<String> spared = page.stream().filter(userId -> !penalize.contains(userId)).toList();
+        if (!spared.isEmpty()) {
+            throttle.call(() -> mongoTemplate.updateMulti(Query.query(where("_id").in(spared).and(marker).ne(runId)),
+                    new Update().set(marker, runId), User.class));
+        }
+        Query completed = Query.query(new Criteria().andOperator(
+                where("Deadline").lt(tick.today()).and("isCompleted").is(true).and("userId").in(List.copyOf(page)),
+                TaskUpdates.periodOver(tick.today())));
+        totals[2] += throttle.call(() -> mongoTemplate.updateMulti(completed, TaskUpdates.resetPeriod(), Task.class)).getModifiedCount();
+
+        totals[0] += page.size();
+        page.clear();
+        penalize.clear();
+    }
+
+    private static AggregationOperation stage(String operator, Document body) {
+        return context -> new Document(operator, body);
+    }
+}
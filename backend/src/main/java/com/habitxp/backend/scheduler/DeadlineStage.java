@@ -0,0 +1,86 @@
+package com.habitxp.backend.scheduler;
+
+import com.habitxp.backend.model.Frequency;
+import com.habitxp.backend.model.Task;
+import com.habitxp.backend.model.User;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Überfällige Tasks: einmalige werden gelöscht, wiederkehrende zurückgesetzt.
+ * Wer keinen überfälligen Task erledigt hat und keinen Streak-Freeze hat, verliert Streak, HP und Coins.
+ * Läuft als letzte Stage, damit der Streak-Reset schon berücksichtigt ist.
+ */
+@Component
+@Order(100)
+public class DeadlineStage implements MaintenanceStage {
+
+    @Override
+    public boolean needsOverdueTasks() {
+        return true;
+    }
+
+    @Override
+    public boolean evaluatedOnAccess() {
+        return true;
+    }
+
+    @Override
+    public void apply(UserMaintenance work) {
+        if (work.getOverdueTasks().isEmpty()) {
+            return;
+        }
+
+        boolean hasCompletedAny = false;
+        LocalDate today = work.getTick().today();
+        for (Task task : work.getOverdueTasks()) {
+            if (task.isCompleted()) {
+                hasCompletedAny = true;
+                // Die Erledigung zählt für diese Mitternacht; ist ihre Periode vorbei, beginnt danach eine neue.
+                // Sonst bliebe isCompleted für immer stehen und schützte vor jeder späteren Strafe
+                if (task.periodOverOn(today)) {
+                    work.getTasks().updateOne(Query.query(new Criteria().andOperator(
+                            where("_id").is(task.getId()).and("isCompleted").is(true),
+                            TaskUpdates.periodOver(task.getFrequency(), today))), TaskUpdates.resetPeriod());
+                    // Markierung am User: ein fortgesetzter Lauf entscheidet nicht erneut über den schon zurückgesetzten Task
+                    work.touch();
+                }
+            } else if (task.getFrequency() == Frequency.NONE) {
+                if (task.getSpaceId() != null) {
+                    work.getSpaces().updateOne(byId(task.getSpaceId()), new Update().pull("taskIds", task.getId()));
+                }
+                work.getTasks().deleteOne(byId(task.getId()));
+            } else {
+                work.getTasks().updateOne(byId(task.getId()), TaskUpdates.resetPeriod());
+            }
+        }
+
+        User user = work.getUser();
+        // Ein abgelaufener Freeze schützt nicht mehr, auch wenn EffectExpiryService noch nicht gelaufen ist
+        if (user.streakFreezeReset()) {
+            work.set("StreakFreezeActive", false).unset("StreakFreezeUntil");
+        }
+        if (!hasCompletedAny && !user.isStreakFreezeActive()) {
+            user.setStreakBroken(true);
+            user.setStreak(0);
+            user.healthpenalty();
+            user.coinPenalty();
+            // Strafe serverseitig rechnen, damit parallele Coin-Änderungen nicht überschrieben werden
+            work.set("streakBroken", true)
+                    .set("streak", 0)
+                    .set("health", UserUpdates.clampedSubtract("health", User.HEALTH_PENALTY))
+                    .set("coins", UserUpdates.clampedSubtract("coins", User.COIN_PENALTY));
+        }
+    }
+
+    private static Query byId(String id) {
+        return Query.query(where("_id").is(id));
+    }
+}
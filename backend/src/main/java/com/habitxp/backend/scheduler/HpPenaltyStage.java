@@ -0,0 +1,36 @@
+package com.habitxp.backend.scheduler;
+
+import com.habitxp.backend.model.User;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+@Component
+@Order(30)
+public class HpPenaltyStage implements MaintenanceStage {
+
+    @Override
+    public boolean midnightOnly() {
+        return true;
+    }
+
+    @Override
+    public Optional<ServerSideUpdate> serverSide(MaintenanceTick tick) {
+        return Optional.of(new ServerSideUpdate(UserUpdates.hpPenaltyFilter(), UserUpdates.coinPenalty()));
+    }
+
+    @Override
+    public boolean evaluatedOnAccess() {
+        return true;
+    }
+
+    @Override
+    public void apply(UserMaintenance work) {
+        User user = work.getUser();
+        if (user.getHealth() <= 0) {
+            user.coinPenalty();
+            work.set("coins", UserUpdates.clampedSubtract("coins", User.COIN_PENALTY));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.habitxp.backend.scheduler;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Laufzeit- und Mengenzahlen eines Jobs seit dem Start der Instanz.
+ */
+public class JobMetrics {
+
+    private final String job;
+    private long runs;
+    private long skipped;
+    private long failures;
+    private Instant lastStartedAt;
+    private long lastDurationMs;
+    private long maxDurationMs;
+    private long totalDurationMs;
+    private long lastScanned;
+    private long lastWritten;
+    private long totalScanned;
+    private long totalWritten;
+    private boolean running;
+
+    public JobMetrics(String job) {
+        this.job = job;
+    }
+
+    public record Snapshot(String job, boolean running, long runs, long skipped, long failures,
+                           Instant lastStartedAt, long lastDurationMs, long maxDurationMs, long avgDurationMs,
+                           long lastScanned, long lastWritten, long totalScanned, long totalWritten) {
+    }
+
+    synchronized void started(Instant at) {
+        running = true;
+        lastStartedAt = at;
+    }
+
+    synchronized void finished(Duration duration, JobResult result) {
+        record(duration);
+        lastScanned = result.scanned();
+        lastWritten = result.written();
+        totalScanned += result.scanned();
+        totalWritten += result.written();
+    }
+
+    synchronized void failed(Duration duration) {
+        record(duration);
+        failures++;
+    }
+
+    synchronized void skipped() {
+        skipped++;
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(job, running, runs, skipped, failures, lastStartedAt, lastDurationMs, maxDurationMs,
+                runs == 0 ? 0 : totalDurationMs / runs, lastScanned, lastWritten, totalScanned, totalWritten);
+    }
+
+    private void record(Duration duration) {
+        running = false;
+        runs++;
+        lastDurationMs = duration.toMillis();
+        maxDurationMs = Math.max(maxDurationMs, lastDurationMs);
+        totalDurationMs += lastDurationMs;
+    }
+}
@@ -0,0 +1,13 @@
+package com.habitxp.backend.scheduler;
+
+/**
+ * Ergebnis eines Job-Laufs: gelesene und geschriebene Dokumente.
+ */
+public record JobResult(long scanned, long written) {
+
+    public static final JobResult EMPTY = new JobResult(0, 0);
+
+    public JobResult plus(JobResult other) {
+        return new JobResult(scanned + other.scanned, written + other.written);
+    }
+}
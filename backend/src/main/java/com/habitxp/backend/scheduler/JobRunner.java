@@ -0,0 +1,88 @@
+package com.habitxp.backend.scheduler;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Führt jeden Scheduler-Job auf seinem eigenen Thread aus. Die {@code @Scheduled}-Methoden stoßen
+ * Jobs nur an und kehren sofort zurück, ein langsamer Job blockiert also keinen anderen.
+ * Läuft ein Job beim nächsten Anstoß noch, wird dieser Anstoß übersprungen und gezählt.
+ */
+@Component
+public class JobRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobRunner.class);
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    private static final class Job {
+        private final ExecutorService executor;
+        private final AtomicBoolean running = new AtomicBoolean();
+        private final JobMetrics metrics;
+
+        private Job(String name) {
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "job-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.metrics = new JobMetrics(name);
+        }
+    }
+
+    // false, wenn der Job noch läuft und dieser Anstoß übersprungen wurde
+    public boolean trigger(String name, Supplier<JobResult> body) {
+        Job job = jobs.computeIfAbsent(name, Job::new);
+        if (!job.running.compareAndSet(false, true)) {
+            job.metrics.skipped();
+            logger.warn("Job {} läuft noch, Anstoß übersprungen", name);
+            return false;
+        }
+
+        Instant start = Instant.now();
+        job.metrics.started(start);
+        try {
+            job.executor.execute(() -> {
+                try {
+                    JobResult result = body.get();
+                    job.metrics.finished(Duration.between(start, Instant.now()), result);
+                } catch (RuntimeException e) {
+                    job.metrics.failed(Duration.between(start, Instant.now()));
+                    logger.error("Job {} fehlgeschlagen", name, e);
+                } finally {
+                    job.running.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Executor bereits heruntergefahren
+            job.running.set(false);
+            throw e;
+        }
+        return true;
+    }
+
+    public List<JobMetrics.Snapshot> metrics() {
+        return jobs.values().stream()
+                .map(job -> job.metrics.snapshot())
+                .sorted(Comparator.comparing(JobMetrics.Snapshot::job))
+                .toList();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobs.values().forEach(job -> job.executor.shutdownNow());
+    }
+}
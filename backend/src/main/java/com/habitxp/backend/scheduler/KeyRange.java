@@ -0,0 +1,41 @@
+package com.habitxp.backend.scheduler;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import java.math.BigInteger;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Abschnitt des User-Keyspaces: {@code from} inklusiv, {@code to} exklusiv, {@code null} heißt offen.
+ * User-Ids sind ObjectIds; in Tasks steht dieselbe Id als Hex-String, der genauso sortiert.
+ */
+public record KeyRange(String from, String to) {
+
+    public static final KeyRange ALL = new KeyRange(null, null);
+
+    // Rest des Bereichs hinter einem Checkpoint; die nächste Id ist die Hex-Zahl + 1
+    public KeyRange resumeAfter(String lastId) {
+        if (lastId == null) return this;
+        String next = String.format("%024x", new BigInteger(lastId, 16).add(BigInteger.ONE));
+        return new KeyRange(next, to);
+    }
+
+    // Für User-Dokumente (_id)
+    public Criteria ids() {
+        Criteria criteria = where("_id");
+        if (from == null && to == null) return criteria.exists(true);
+        if (from != null) criteria = criteria.gte(new ObjectId(from));
+        if (to != null) criteria = criteria.lt(new ObjectId(to));
+        return criteria;
+    }
+
+    // Für Dokumente, die den User über userId referenzieren
+    public Criteria userIds() {
+        Criteria criteria = where("userId").ne(null);
+        if (from != null) criteria = criteria.gte(from);
+        if (to != null) criteria = criteria.lt(to);
+        return criteria;
+    }
+}
@@ -0,0 +1,8 @@
+package com.habitxp.backend.scheduler;
+
+/**
+ * Ein gehaltener Lease. Schreibzugriffe prüfen vorher mit {@link LeaseService#isValid(Lease)},
+ * ob Owner und Token noch aktuell sind.
+ */
+public record Lease(String name, String owner, long token) {
+}
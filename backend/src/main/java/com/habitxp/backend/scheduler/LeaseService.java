@@ -0,0 +1,144 @@
+package com.habitxp.backend.scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Leases in Mongo, damit mehrere Backend-Instanzen dieselbe Scheduler-Arbeit nicht doppelt machen.
+ * Gehaltene Leases werden per Heartbeat verlängert; fällt eine Instanz aus, laufen ihre Leases ab
+ * und eine andere Instanz übernimmt sie mit einem höheren Token.
+ */
+@Service
+public class LeaseService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaseService.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final JobRunner jobRunner;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Set<Lease> held = ConcurrentHashMap.newKeySet();
+
+    @Value("${scheduler.lease.ttl-ms:60000}")
+    private long ttlMs;
+
+    public LeaseService(MongoTemplate mongoTemplate, JobRunner jobRunner) {
+        this.mongoTemplate = mongoTemplate;
+        this.jobRunner = jobRunner;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public Optional<Lease> tryAcquire(String name) {
+        Instant now = Instant.now();
+        Query query = Query.query(where("_id").is(name)
+                .and("completed").ne(true)
+                .orOperator(where("expiresAt").lt(now), where("owner").is(nodeId)));
+        Update update = new Update()
+                .set("owner", nodeId)
+                .set("expiresAt", now.plusMillis(ttlMs))
+                .inc("token", 1)
+                .setOnInsert("createdAt", now);
+
+        try {
+            SchedulerLease lease = mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), SchedulerLease.class);
+            if (lease == null) return Optional.empty();
+
+            Lease acquired = new Lease(name, nodeId, lease.getToken());
+            held.add(acquired);
+            return Optional.of(acquired);
+        } catch (DuplicateKeyException e) {
+            // Lease existiert, gehört aber jemand anderem oder ist schon erledigt
+            return Optional.empty();
+        }
+    }
+
+    // Fencing: nur wer Owner und aktuellen Token hat, darf noch schreiben
+    public boolean isValid(Lease lease) {
+        Query query = Query.query(where("_id").is(lease.name())
+                .and("owner").is(lease.owner())
+                .and("token").is(lease.token())
+                .and("expiresAt").gt(Instant.now()));
+        return mongoTemplate.exists(query, SchedulerLease.class);
+    }
+
+    // Arbeit erledigt: Lease bleibt bestehen, damit niemand sie im selben Lauf erneut übernimmt
+    public void complete(Lease lease) {
+        mongoTemplate.updateFirst(byOwner(lease), new Update().set("completed", true), SchedulerLease.class);
+        held.remove(lease);
+    }
+
+    public void release(Lease lease) {
+        mongoTemplate.updateFirst(byOwner(lease), new Update().set("expiresAt", Instant.now()), SchedulerLease.class);
+        held.remove(lease);
+    }
+
+    // Eigener Job, damit ein langer Wartungslauf die Verlängerung seiner eigenen Leases nicht aufhält
+    @Scheduled(fixedRateString = "${scheduler.lease.heartbeat-ms:15000}")
+    public void heartbeat() {
+        jobRunner.trigger("lease-heartbeat", this::renewHeld);
+    }
+
+    JobResult renewHeld() {
+        Instant now = Instant.now();
+        long renewedCount = 0;
+        try {
+            mongoTemplate.upsert(Query.query(where("_id").is(nodeId)), new Update().set("heartbeatAt", now), SchedulerNode.class);
+            for (Lease lease : held) {
+                boolean renewed = mongoTemplate.updateFirst(byOwner(lease),
+                        new Update().set("expiresAt", now.plusMillis(ttlMs)), SchedulerLease.class).getModifiedCount() > 0;
+                if (renewed) {
+                    renewedCount++;
+                } else {
+                    logger.warn("Lease {} verloren (Token {})", lease.name(), lease.token());
+                    held.remove(lease);
+                }
+            }
+        } catch (DataAccessException e) {
+            logger.warn("Scheduler-Heartbeat fehlgeschlagen: {}", e.getMessage());
+        }
+        return new JobResult(held.size(), renewedCount + 1);
+    }
+
+    // Lebende Instanzen in stabiler Reihenfolge
+    public List<String> liveNodes() {
+        Instant cutoff = Instant.now().minus(Duration.ofMillis(ttlMs));
+        Query query = Query.query(where("heartbeatAt").gt(cutoff)).with(Sort.by("_id"));
+        return mongoTemplate.find(query, SchedulerNode.class).stream().map(SchedulerNode::getId).toList();
+    }
+
+    // Position dieser Instanz unter den lebenden; bestimmt, mit welcher Partition sie anfängt
+    public int nodeIndex() {
+        int index = liveNodes().indexOf(nodeId);
+        return Math.max(0, index);
+    }
+
+    private Query byOwner(Lease lease) {
+        return Query.query(Criteria.where("_id").is(lease.name())
+                .and("owner").is(lease.owner())
+                .and("token").is(lease.token()));
+    }
+}
@@ -0,0 +1,62 @@
+package com.habitxp.backend.scheduler;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ein Wartungslauf (ein Tick). Die Partitionsgrenzen legt die erste Instanz fest, die den Lauf
+ * anlegt; alle anderen Instanzen übernehmen sie, damit sich die Partitionen nie überschneiden.
+ * Pro Partition wird ein Checkpoint geführt, sodass ein abgebrochener Lauf dort weitermacht.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "scheduler_runs")
+public class MaintenanceRun {
+
+    @Id
+    private String id;
+
+    // Tick, für den der Lauf gilt; beim Fortsetzen wird genau dieser Tick wiederverwendet
+    private Instant tickAt;
+    private LocalDate today;
+    private boolean midnight;
+    private List<String> zones;
+
+    // n-1 User-Ids, die den Keyspace in n Partitionen teilen
+    @Builder.Default
+    private List<String> boundaries = new ArrayList<>();
+
+    @Builder.Default
+    private List<PartitionProgress> partitions = new ArrayList<>();
+
+    @Indexed(expireAfter = "30d")
+    private Instant createdAt;
+    private Instant finishedAt;
+
+    public MaintenanceTick tick() {
+        return new MaintenanceTick(tickAt, today, midnight, zones);
+    }
+
+    public List<KeyRange> ranges() {
+        List<KeyRange> ranges = new ArrayList<>(boundaries.size() + 1);
+        String from = null;
+        for (String boundary : boundaries) {
+            ranges.add(new KeyRange(from, boundary));
+            from = boundary;
+        }
+        ranges.add(new KeyRange(from, null));
+        return ranges;
+    }
+}
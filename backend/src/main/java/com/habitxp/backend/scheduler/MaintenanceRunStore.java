@@ -0,0 +1,141 @@
+package com.habitxp.backend.scheduler;
+
+import com.habitxp.backend.model.User;
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Lauf-Dokumente in {@code scheduler_runs}: Anlegen mit Partitionsgrenzen, Checkpoints und Abfragen.
+ */
+@Component
+@RequiredArgsConstructor
+public class MaintenanceRunStore {
+
+    private final MongoTemplate mongoTemplate;
+
+    // Der erste Knoten legt die Partitionsgrenzen fest, alle weiteren lesen sie nur
+    public MaintenanceRun plan(MaintenanceTick tick, int partitions) {
+        // Zu einer Stunde kann es pro lokalem Datum einen Bucket geben; jeder ist ein eigener Lauf
+        String runId = "maintenance-" + tick.now().truncatedTo(ChronoUnit.HOURS)
+                + (tick.zones() != null ? "-" + tick.today() : "");
+        MaintenanceRun existing = mongoTemplate.findById(runId, MaintenanceRun.class);
+        if (existing != null) return existing;
+
+        List<String> boundaries = splitUserIds(Math.max(1, partitions));
+        List<PartitionProgress> progress = IntStream.rangeClosed(0, boundaries.size())
+                .mapToObj(index -> PartitionProgress.builder().index(index).build())
+                .toList();
+        MaintenanceRun planned = MaintenanceRun.builder()
+                .id(runId)
+                .tickAt(tick.now())
+                .today(tick.today())
+                .midnight(tick.midnight())
+                .zones(tick.zones())
+                .boundaries(boundaries)
+                .partitions(progress)
+                .createdAt(Instant.now())
+                .build();
+        Update update = new Update()
+                .setOnInsert("tickAt", planned.getTickAt())
+                .setOnInsert("today", planned.getToday())
+                .setOnInsert("midnight", planned.isMidnight())
+                .setOnInsert("zones", planned.getZones())
+                .setOnInsert("boundaries", planned.getBoundaries())
+                .setOnInsert("partitions", planned.getPartitions())
+                .setOnInsert("createdAt", planned.getCreatedAt());
+        try {
+            MaintenanceRun run = mongoTemplate.findAndModify(byId(runId), update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), MaintenanceRun.class);
+            return run != null ? run : planned;
+        } catch (DuplicateKeyException e) {
+            // Gleichzeitig von einem anderen Knoten angelegt
+            return mongoTemplate.findById(runId, MaintenanceRun.class);
+        }
+    }
+
+    public void partitionStarted(String runId, int index, String owner) {
+        String prefix = "partitions." + index + ".";
+        mongoTemplate.updateFirst(byId(runId), new Update()
+                .set(prefix + "owner", owner)
+                .min(prefix + "startedAt", Instant.now()), MaintenanceRun.class);
+    }
+
+    // Erst aufrufen, wenn alle Writes bis einschließlich lastUserId geflusht sind
+    public void checkpoint(String runId, int index, String lastUserId, long scanned, long modified, long deleted) {
+        String prefix = "partitions." + index + ".";
+        mongoTemplate.updateFirst(byId(runId), new Update()
+                .set(prefix + "lastUserId", lastUserId)
+                .inc(prefix + "scanned", scanned)
+                .inc(prefix + "modified", modified)
+                .inc(prefix + "deleted", deleted), MaintenanceRun.class);
+    }
+
+    public void stageCompleted(String runId, int index, String stage, long modified) {
+        String prefix = "partitions." + index + ".";
+        mongoTemplate.updateFirst(byId(runId), new Update()
+                .addToSet(prefix + "completedStages", stage)
+                .inc(prefix + "modified", modified), MaintenanceRun.class);
+    }
+
+    public void partitionFinished(String runId, int index) {
+        Instant now = Instant.now();
+        mongoTemplate.updateFirst(byId(runId), new Update().set("partitions." + index + ".finishedAt", now), MaintenanceRun.class);
+
+        // Lauf abschließen, sobald keine Partition mehr offen ist
+        Query allDone = Query.query(where("_id").is(runId)
+                .and("finishedAt").exists(false)
+                .and("partitions").not().elemMatch(where("finishedAt").exists(false)));
+        mongoTemplate.updateFirst(allDone, new Update().set("finishedAt", now), MaintenanceRun.class);
+    }
+
+    public Optional<MaintenanceRun> findById(String runId) {
+        return Optional.ofNullable(mongoTemplate.findById(runId, MaintenanceRun.class));
+    }
+
+    public List<MaintenanceRun> recent(int limit) {
+        Query query = new Query().with(Sort.by(Sort.Direction.DESC, "createdAt")).limit(limit);
+        return mongoTemplate.find(query, MaintenanceRun.class);
+    }
+
+    public List<MaintenanceRun> unfinishedSince(Instant since) {
+        Query query = Query.query(where("finishedAt").exists(false).and("createdAt").gte(since))
+                .with(Sort.by("createdAt"));
+        return mongoTemplate.find(query, MaintenanceRun.class);
+    }
+
+    // Grenzen über den _id-Index, sodass jede Partition etwa gleich viele User enthält
+    private List<String> splitUserIds(int count) {
+        List<String> boundaries = new ArrayList<>();
+        if (count <= 1) return boundaries;
+
+        long total = mongoTemplate.count(new Query(), User.class);
+        for (int i = 1; i < count; i++) {
+            Query query = new Query().with(Sort.by("_id")).skip(total * i / count).limit(1);
+            query.fields().include("_id");
+            User boundary = mongoTemplate.findOne(query, User.class);
+            if (boundary != null && !boundaries.contains(boundary.getId())) {
+                boundaries.add(boundary.getId());
+            }
+        }
+        return boundaries;
+    }
+
+    private static Query byId(String id) {
+        return Query.query(where("_id").is(id));
+    }
+}
@@ -0,0 +1,36 @@
+package com.habitxp.backend.scheduler;
+
+import java.util.Optional;
+
+/**
+ * Eine Regel des stündlichen Wartungslaufs. Stages werden in {@link org.springframework.core.annotation.Order}
+ * -Reihenfolge auf jeden besuchten User angewendet.
+ */
+public interface MaintenanceStage {
+
+    default String name() {
+        return getClass().getSimpleName();
+    }
+
+    // Nur im Mitternachts-Tick ausführen
+    default boolean midnightOnly() {
+        return false;
+    }
+
+    // Die Stage braucht die überfälligen Tasks des Users
+    default boolean needsOverdueTasks() {
+        return false;
+    }
+
+    // Im Lazy-Modus holt LazyEvaluationService die Regel beim nächsten Zugriff auf den User nach
+    default boolean evaluatedOnAccess() {
+        return false;
+    }
+
+    // Serverseitige Form, wenn die Stage ohne Laden der User auskommt
+    default Optional<ServerSideUpdate> serverSide(MaintenanceTick tick) {
+        return Optional.empty();
+    }
+
+    void apply(UserMaintenance work);
+}
@@ -0,0 +1,60 @@
+package com.habitxp.backend.scheduler;
+
+import com.habitxp.backend.model.PeriodCalendar;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Zeitpunkt eines Wartungslaufs. Um Mitternacht laufen zusätzlich die täglichen Stages.
+ * <p>
+ * {@code zones} ist der Bucket des Ticks: die Zeitzonen, in denen gerade die Stunde nach Mitternacht
+ * läuft und deren lokales Datum {@code today} ist. Nur deren User werden bearbeitet. {@code null} in der
+ * Liste steht für User ohne eigene Zone; ist die Liste selbst {@code null}, gilt der Tick für alle User.
+ */
+public record MaintenanceTick(Instant now, LocalDate today, boolean midnight, List<String> zones) {
+
+    public MaintenanceTick(Instant now, LocalDate today, boolean midnight) {
+        this(now, today, midnight, null);
+    }
+
+    public static MaintenanceTick at(Instant now, ZoneId zone) {
+        return new MaintenanceTick(now, PeriodCalendar.localDate(now, zone), PeriodCalendar.isFirstHourOfDay(now, zone));
+    }
+
+    /**
+     * Ein Tick pro lokalem Datum über alle Zonen, in denen gerade die erste Stunde des lokalen Tages läuft.
+     * Zonen mit gleichem Zeitpunkt von Mitternacht können auf verschiedene Kalendertage fallen
+     * (z.B. Pacific/Kiritimati, UTC+14, und Pacific/Honolulu, UTC-10); jeder Bucket wird mit seinem eigenen
+     * Datum ausgewertet. Sortiert nach Datum.
+     */
+    public static List<MaintenanceTick> buckets(Instant now, ZoneId defaultZone) {
+        Map<LocalDate, List<String>> zonesByDate = new TreeMap<>();
+        for (String id : ZoneId.getAvailableZoneIds()) {
+            ZoneId zone = ZoneId.of(id);
+            if (PeriodCalendar.isFirstHourOfDay(now, zone)) {
+                zonesByDate.computeIfAbsent(PeriodCalendar.localDate(now, zone), date -> new ArrayList<>()).add(id);
+            }
+        }
+        if (PeriodCalendar.isFirstHourOfDay(now, defaultZone)) {
+            zonesByDate.computeIfAbsent(PeriodCalendar.localDate(now, defaultZone), date -> new ArrayList<>()).add(null);
+        }
+        List<MaintenanceTick> ticks = new ArrayList<>(zonesByDate.size());
+        zonesByDate.forEach((today, zones) -> ticks.add(new MaintenanceTick(now, today, true, zones)));
+        return ticks;
+    }
+
+    // Filter auf den Bucket; leer, wenn der Tick alle User betrifft
+    public Optional<Criteria> userFilter() {
+        return zones == null ? Optional.empty() : Optional.of(where("zoneId").in(zones));
+    }
+}
@@ -0,0 +1,31 @@
+package com.habitxp.backend.scheduler;
+
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Begrenzt, wie viele Mongo-Operationen der Scheduler gleichzeitig offen hat,
+ * damit parallele Partitionen den Connection-Pool nicht leerziehen.
+ */
+public class MongoThrottle {
+
+    private final Semaphore permits;
+
+    public MongoThrottle(int maxInFlight) {
+        this.permits = new Semaphore(Math.max(1, maxInFlight), true);
+    }
+
+    public <T> T call(Supplier<T> operation) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Warten auf Mongo-Slot unterbrochen", e);
+        }
+        try {
+            return operation.get();
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.habitxp.backend.scheduler;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checkpoint einer Partition innerhalb eines {@link MaintenanceRun}s.
+ * {@code lastUserId} ist der letzte User, dessen Änderungen vollständig geschrieben sind.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PartitionProgress {
+    private int index;
+    private String owner;
+    private String lastUserId;
+    private long scanned;
+    private long modified;
+    private long deleted;
+
+    // Serverseitige Stages, deren updateMany für diese Partition schon gelaufen ist
+    @Builder.Default
+    private List<String> completedStages = new ArrayList<>();
+
+    private Instant startedAt;
+    private Instant finishedAt;
+}
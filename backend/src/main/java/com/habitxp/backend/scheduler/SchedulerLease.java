@@ -0,0 +1,33 @@
+package com.habitxp.backend.scheduler;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Lease auf ein Stück Scheduler-Arbeit (z.B. eine Partition eines Wartungslaufs).
+ * Der Token wird bei jeder Übernahme erhöht und dient als Fencing-Token.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "scheduler_leases")
+public class SchedulerLease {
+
+    @Id
+    private String id;
+    private String owner;
+    private long token;
+    private Instant expiresAt;
+    private boolean completed;
+
+    @Indexed(expireAfter = "2d")
+    private Instant createdAt;
+}
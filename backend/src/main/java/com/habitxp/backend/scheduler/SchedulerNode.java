@@ -0,0 +1,28 @@
+package com.habitxp.backend.scheduler;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Lebenszeichen einer Backend-Instanz. Tote Instanzen räumt der TTL-Index ab.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "scheduler_nodes")
+public class SchedulerNode {
+
+    @Id
+    private String id;
+
+    @Indexed(expireAfter = "10m")
+    private Instant heartbeatAt;
+}
@@ -0,0 +1,31 @@
+package com.habitxp.backend.scheduler;
+
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Filter und Update, mit denen eine Stage als einzelnes updateMany in Mongo laufen kann.
+ */
+public record ServerSideUpdate(Criteria filter, UpdateDefinition update) {
+
+    /**
+     * Dieselbe Stage, aber höchstens einmal pro Lauf: Der Filter lässt nur User ohne Markierung des Laufs zu,
+     * das Update setzt sie im selben Schreibvorgang. Ein nach einem Absturz wiederholtes updateMany trifft
+     * die schon bearbeiteten User deshalb nicht erneut.
+     */
+    public ServerSideUpdate onceIn(String stage, String runId) {
+        String marker = UserUpdates.stageMarker(stage);
+        Criteria once = new Criteria().andOperator(filter, where(marker).ne(runId));
+        if (update instanceof AggregationUpdate aggregation) {
+            return new ServerSideUpdate(once, aggregation.set(marker).toValue(runId));
+        }
+        if (update instanceof Update plain) {
+            return new ServerSideUpdate(once, plain.set(marker, runId));
+        }
+        throw new IllegalStateException("Nicht unterstützter Update-Typ " + update.getClass().getSimpleName());
+    }
+}
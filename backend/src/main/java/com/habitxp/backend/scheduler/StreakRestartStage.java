@@ -0,0 +1,36 @@
+package com.habitxp.backend.scheduler;
+
+import com.habitxp.backend.model.User;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+@Component
+@Order(40)
+public class StreakRestartStage implements MaintenanceStage {
+
+    @Override
+    public boolean midnightOnly() {
+        return true;
+    }
+
+    @Override
+    public Optional<ServerSideUpdate> serverSide(MaintenanceTick tick) {
+        return Optional.of(new ServerSideUpdate(UserUpdates.streakBrokenFilter(), UserUpdates.restartStreak()));
+    }
+
+    @Override
+    public boolean evaluatedOnAccess() {
+        return true;
+    }
+
+    @Override
+    public void apply(UserMaintenance work) {
+        User user = work.getUser();
+        if (user.isStreakBroken()) {
+            user.setStreakBroken(false);
+            work.set("streakBroken", false);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.habitxp.backend.scheduler;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Führt die Partitionen eines Wartungslaufs parallel auf einem festen Thread-Pool aus.
+ * Zusätzlich zur Thread-Zahl begrenzt {@link #getThrottle()} die gleichzeitig offenen Mongo-Operationen.
+ */
+@Component
+public class SweepExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SweepExecutor.class);
+
+    private final ExecutorService executor;
+    private final MongoThrottle throttle;
+
+    public SweepExecutor(@Value("${scheduler.parallelism:4}") int parallelism,
+                         @Value("${scheduler.max-in-flight:8}") int maxInFlight) {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "sweep-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.throttle = new MongoThrottle(maxInFlight);
+    }
+
+    public MongoThrottle getThrottle() {
+        return throttle;
+    }
+
+    // Blockiert, bis alle Aufgaben fertig sind; Fehler einzelner Aufgaben brechen die anderen nicht ab
+    public void runAll(List<Runnable> tasks) {
+        List<Future<?>> futures = new ArrayList<>(tasks.size());
+        tasks.forEach(task -> futures.add(executor.submit(task)));
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                logger.error("Sweep-Aufgabe fehlgeschlagen", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                return;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,42 @@
+package com.habitxp.backend.scheduler;
+
+import com.habitxp.backend.model.Frequency;
+import com.habitxp.backend.model.PeriodCalendar;
+import com.habitxp.backend.model.Task;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Serverseitige Gegenstücke zu den Periodenregeln in {@link Task}, wie {@link UserUpdates} für User.
+ */
+public final class TaskUpdates {
+
+    private static final List<Frequency> ROLLING = List.of(Frequency.DAILY, Frequency.WEEKLY, Frequency.MONTHLY);
+
+    private TaskUpdates() {
+    }
+
+    // Task#periodOverOn für Tasks einer Frequenz
+    public static Criteria periodOver(Frequency frequency, LocalDate today) {
+        return where("frequency").is(frequency).orOperator(
+                where("periodKey").lt(PeriodCalendar.key(frequency, today)),
+                // Tasks ohne Zähler: über die letzte Erledigung entscheiden
+                where("periodKey").exists(false).and("lastCompletedAt").lt(PeriodCalendar.periodStart(frequency, today).atStartOfDay()));
+    }
+
+    // Task#periodOverOn für alle wiederkehrenden Tasks
+    public static Criteria periodOver(LocalDate today) {
+        return new Criteria().orOperator(ROLLING.stream().map(frequency -> periodOver(frequency, today)).toList());
+    }
+
+    // Task#resetPeriod
+    public static Update resetPeriod() {
+        return new Update().set("completions", new ArrayList<>()).set("periodCount", 0).set("isCompleted", false);
+    }
+}
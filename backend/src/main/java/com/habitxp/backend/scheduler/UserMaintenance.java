@@ -0,0 +1,78 @@
+package com.habitxp.backend.scheduler;
+
+import com.habitxp.backend.model.Task;
+import com.habitxp.backend.model.User;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+
+import java.util.List;
+
+/**
+ * Arbeitsstand eines Users innerhalb eines Wartungslaufs. Die Stages ändern den User im
+ * Speicher und merken sich hier die geänderten Felder; am Ende wird daraus genau ein
+ * Update pro User. Werte dürfen auch Aggregations-Ausdrücke sein (z.B. geklemmte Strafen),
+ * die erst Mongo auf dem aktuellen Dokument ausrechnet. Änderungen an Tasks und Spaces landen direkt in den Bulk-Writern des Laufs.
+ */
+public class UserMaintenance {
+
+    private final User user;
+    private final List<Task> overdueTasks;
+    private final MaintenanceTick tick;
+    private final BulkWriter tasks;
+    private final BulkWriter spaces;
+    private final AggregationUpdate update = AggregationUpdate.update();
+    private boolean changed;
+
+    public UserMaintenance(User user, List<Task> overdueTasks, MaintenanceTick tick, BulkWriter tasks, BulkWriter spaces) {
+        this.user = user;
+        this.overdueTasks = overdueTasks;
+        this.tick = tick;
+        this.tasks = tasks;
+        this.spaces = spaces;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public List<Task> getOverdueTasks() {
+        return overdueTasks;
+    }
+
+    public MaintenanceTick getTick() {
+        return tick;
+    }
+
+    public BulkWriter getTasks() {
+        return tasks;
+    }
+
+    public BulkWriter getSpaces() {
+        return spaces;
+    }
+
+    public UserMaintenance set(String field, Object value) {
+        update.set(field).toValue(value);
+        changed = true;
+        return this;
+    }
+
+    public UserMaintenance unset(String field) {
+        update.unset(field);
+        changed = true;
+        return this;
+    }
+
+    // Der User bekommt die Markierung des Laufs, auch ohne eigene Änderung; z.B. wenn seine Tasks zurückgesetzt werden
+    public UserMaintenance touch() {
+        changed = true;
+        return this;
+    }
+
+    public boolean isChanged() {
+        return changed;
+    }
+
+    public AggregationUpdate getUpdate() {
+        return update;
+    }
+}
@@ -0,0 +1,87 @@
+package com.habitxp.backend.scheduler;
+
+import com.habitxp.backend.model.User;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.time.Instant;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Serverseitige Gegenstücke zu den Zustandsänderungen in {@link User}.
+ * Filter und Updates müssen dieselbe Semantik haben wie die jeweiligen Java-Methoden,
+ * damit es egal ist, ob ein Job im JVM oder per updateMany in Mongo läuft.
+ */
+public final class UserUpdates {
+
+    private UserUpdates() {
+    }
+
+    // User#coinPenalty für alle User mit health <= 0
+    public static Criteria hpPenaltyFilter() {
+        return where("health").lte(0);
+    }
+
+    public static UpdateDefinition coinPenalty() {
+        return AggregationUpdate.update()
+                .set("coins").toValue(clampedSubtract("coins", User.COIN_PENALTY));
+    }
+
+    public static Criteria streakBrokenFilter() {
+        return where("streakBroken").is(true);
+    }
+
+    public static UpdateDefinition restartStreak() {
+        return new Update().set("streakBroken", false);
+    }
+
+    // Strafe für verpasste Deadlines, wie in DeadlineStage
+    public static AggregationUpdate missedDeadlinePenalty() {
+        return AggregationUpdate.update()
+                .set("streakBroken").toValue(true)
+                .set("streak").toValue(0)
+                .set("health").toValue(clampedSubtract("health", User.HEALTH_PENALTY))
+                .set("coins").toValue(clampedSubtract("coins", User.COIN_PENALTY));
+    }
+
+    // User#streakFreezeReset
+    public static Criteria streakFreezeExpiredFilter(Instant now) {
+        return where("StreakFreezeUntil").lt(now);
+    }
+
+    public static UpdateDefinition streakFreezeReset() {
+        return new Update()
+                .set("StreakFreezeActive", false)
+                .unset("StreakFreezeUntil");
+    }
+
+    // User#xpFactorReset
+    public static Criteria xpFactorExpiredFilter(Instant now) {
+        return where("xpFactorUntil").lt(now);
+    }
+
+    public static UpdateDefinition xpFactorReset() {
+        return new Update()
+                .set("xpFactor", 1)
+                .unset("xpFactorUntil")
+                .set("xpBonusActive", false);
+    }
+
+    // Markierung einer Stage, die außerhalb des kombinierten Updates pro User schreibt; siehe User#maintenanceStages
+    public static String stageMarker(String stage) {
+        return "maintenanceStages." + stage;
+    }
+
+    // field - amount, aber nie unter 0 (wie User#coinPenalty / User#healthpenalty)
+    public static ConditionalOperators.Cond clampedSubtract(String field, int amount) {
+        return ConditionalOperators.when(ComparisonOperators.valueOf(field).greaterThanEqualToValue(amount))
+                .then(ArithmeticOperators.valueOf(field).subtract(amount))
+                .otherwise(0);
+    }
+}
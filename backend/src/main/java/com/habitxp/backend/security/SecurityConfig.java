@@ -34,6 +34,8 @@ public class SecurityConfig {
                                 "/v3/api-docs/**",
                                 "/v3/api-docs.yaml"
                         ).permitAll()
+                        // Laufdaten des Schedulers enthalten User-Ids und Knoten; nur für Admins
+                        .requestMatchers("/scheduler/**").hasRole(JwtAuthenticationFilter.ADMIN_ROLE)
                         .anyRequest().authenticated()
                 )
                 .exceptionHandling(exception ->
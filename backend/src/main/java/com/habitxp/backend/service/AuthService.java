@@ -3,6 +3,7 @@ package com.habitxp.backend.service;
 import com.habitxp.backend.dto.AuthResponse;
 import com.habitxp.backend.dto.LoginRequest;
 import com.habitxp.backend.dto.RegisterRequest;
+import com.habitxp.backend.model.Frequency;
 import com.habitxp.backend.model.User;
 import com.habitxp.backend.repository.UserRepository;
 import com.habitxp.backend.security.JwtService;
@@ -32,6 +33,9 @@ public class AuthService {
         if (!isPasswordSecure(request.getPassword())) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Password must be at least 8 characters long and contain at least one uppercase letter.");
         }
+        if (!User.isSupportedZone(request.getZoneId())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown time zone");
+        }
         if (userRepository.existsByEmail(request.getEmail())) {
             throw new ResponseStatusException(HttpStatus.CONFLICT, "Email already in use");
         }
@@ -45,6 +49,7 @@ public class AuthService {
                 .password(passwordEncoder.encode(request.getPassword()))
                 .firstName(request.getFirstName())
                 .lastName(request.getLastName())
+                .zoneId(request.getZoneId())
                 .xp(0)
                 .xpGoal(20)
                 .coins(0)
@@ -53,6 +58,7 @@ public class AuthService {
                 .maxHealth(20)
                 .currentXP(0)
                 .streak(0)
+                .streakFrequency(Frequency.DAILY)
                 .taskLimit(1)
                 .bonusIds(new ArrayList<>())
                 .avatars(new ArrayList<>())
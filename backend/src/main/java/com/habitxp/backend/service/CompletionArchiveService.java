@@ -0,0 +1,108 @@
+package com.habitxp.backend.service;
+
+import com.habitxp.backend.model.TaskCompletion;
+import com.habitxp.backend.scheduler.JobResult;
+import com.habitxp.backend.scheduler.JobRunner;
+import com.habitxp.backend.scheduler.Lease;
+import com.habitxp.backend.scheduler.LeaseService;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Verschiebt nachts alte Erledigungen aus task_completions gepackt in task_histories.
+ * So bleibt task_completions auf das Fenster der letzten Tage begrenzt und der Erledigungs-Pfad
+ * muss nie über die Historie laufen; das Archiv bleibt pro Task und User abfragbar.
+ */
+@Service
+@RequiredArgsConstructor
+public class CompletionArchiveService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompletionArchiveService.class);
+    private static final String ARCHIVE_JOB = "completion-archive";
+
+    private final MongoTemplate mongoTemplate;
+    private final CompletionHistoryService completionHistory;
+    private final LeaseService leaseService;
+    private final JobRunner jobRunner;
+
+    @Value("${scheduler.archive.after-days:90}")
+    private int afterDays;
+
+    @Value("${scheduler.archive.batch-size:500}")
+    private int batchSize;
+
+    @Scheduled(cron = "${scheduler.archive.cron:0 30 3 * * *}")
+    public void runArchive() {
+        jobRunner.trigger(ARCHIVE_JOB, this::archiveDue);
+    }
+
+    public JobResult archiveDue() {
+        // Ein Lauf pro Tag über alle Instanzen
+        Optional<Lease> lease = leaseService.tryAcquire(ARCHIVE_JOB + "/" + LocalDate.now());
+        if (lease.isEmpty()) {
+            return JobResult.EMPTY;
+        }
+        try {
+            JobResult result = archiveOlderThan(LocalDateTime.now().minusDays(afterDays));
+            leaseService.complete(lease.get());
+            logger.info("Archivierung: {} Erledigungen verschoben", result.written());
+            return result;
+        } catch (RuntimeException e) {
+            leaseService.release(lease.get());
+            throw e;
+        }
+    }
+
+    JobResult archiveOlderThan(LocalDateTime cutoff) {
+        // Sortierung passt zum Index task_timestamp, damit die Einträge eines Tasks zusammenhängend kommen
+        Query query = Query.query(where("timestamp").lt(cutoff))
+                .with(Sort.by(Sort.Order.asc("taskId"), Sort.Order.desc("timestamp")));
+
+        long scanned = 0;
+        long moved = 0;
+        List<TaskCompletion> group = new ArrayList<>();
+        try (Stream<TaskCompletion> completions = mongoTemplate.stream(query, TaskCompletion.class)) {
+            for (Iterator<TaskCompletion> it = completions.iterator(); it.hasNext(); ) {
+                TaskCompletion completion = it.next();
+                scanned++;
+                if (!group.isEmpty() && (!group.get(0).getTaskId().equals(completion.getTaskId()) || group.size() >= batchSize)) {
+                    moved += move(group);
+                }
+                group.add(completion);
+            }
+        }
+        moved += move(group);
+        return new JobResult(scanned, moved);
+    }
+
+    private long move(List<TaskCompletion> group) {
+        if (group.isEmpty()) {
+            return 0;
+        }
+        TaskCompletion first = group.get(0);
+        completionHistory.archive(first.getTaskId(), first.getUserId(),
+                group.stream().map(TaskCompletion::toCompletion).toList());
+        // Erst nach dem Archivieren löschen; bricht der Lauf dazwischen ab, fasst das Archiv die Dubletten zusammen
+        List<String> ids = group.stream().map(TaskCompletion::getId).toList();
+        long deleted = mongoTemplate.remove(Query.query(where("_id").in(ids)), TaskCompletion.class).getDeletedCount();
+        group.clear();
+        return deleted;
+    }
+}
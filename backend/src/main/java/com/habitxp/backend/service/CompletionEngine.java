@@ -0,0 +1,583 @@
+package com.habitxp.backend.service;
+
+import com.habitxp.backend.model.Completion;
+import com.habitxp.backend.model.DurationUnit;
+import com.habitxp.backend.model.Frequency;
+import com.habitxp.backend.model.FrequencyOrder;
+import com.habitxp.backend.model.PeriodCalendar;
+import com.habitxp.backend.model.Task;
+import com.habitxp.backend.model.TaskCompletion;
+import com.habitxp.backend.model.User;
+import com.habitxp.backend.scheduler.BulkWriter;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Erledigt einen Task mit höchstens zwei findAndModify: eines auf den Task (Cooldown, Periodenzähler,
+ * Erledigung; auch bei Ablehnung das einzige Lesen) und, wenn die Periode damit erfüllt ist, eines auf
+ * den User (XP, Level, Coins, Streak).
+ * Die Pipelines rechnen dieselben Regeln wie {@link Task#markAsCompleted} und {@link User#addXP},
+ * nur in Mongo; gleichzeitige Taps können sich so nicht gegenseitig überschreiben.
+ */
+@Service
+@RequiredArgsConstructor
+public class CompletionEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompletionEngine.class);
+
+    private static final List<Frequency> ROLLING = List.of(Frequency.DAILY, Frequency.WEEKLY, Frequency.MONTHLY);
+    private static final List<String> TIME_UNITS = Arrays.stream(DurationUnit.values())
+            .filter(DurationUnit::isTimeBased).map(Enum::name).toList();
+    private static final List<Long> LEVEL_THRESHOLDS = User.levelThresholds();
+    private static final List<Long> XP_GOALS = IntStream.range(0, LEVEL_THRESHOLDS.size())
+            .mapToObj(User::xpGoalFor).toList();
+    private static final Date EPOCH = new Date(0);
+    private static final long MINUTE_MILLIS = 60_000L;
+    private static final int SYNC_ATTEMPTS = 3;
+
+    // Ergebnis des letzten complete() am Task-Dokument, siehe completion()
+    static final String ACCEPTED = "_accepted";
+
+    // Ablehnungsgrund, bei dem der Client den Eintrag behalten und später erneut senden soll
+    public static final String SYNC_CONFLICT = "Conflict";
+
+    private final MongoTemplate mongoTemplate;
+
+    // user ist nur gesetzt, wenn die Erledigung Belohnungen gutgeschrieben hat
+    public record Outcome(Task task, boolean success, User user, boolean levelup) {
+    }
+
+    // user ist der Stand nach der letzten Gutschrift im Batch, null ohne Gutschrift
+    public record BatchOutcome(List<Outcome> outcomes, User user, boolean levelup) {
+    }
+
+    private record Reward(User user, boolean levelup) {
+    }
+
+    // Eine offline erfasste Erledigung; at ist bereits auf Millisekunden gekürzt und nicht in der Zukunft
+    public record SyncEntry(String taskId, LocalDateTime at) {
+    }
+
+    public record Rejection(SyncEntry entry, String reason) {
+    }
+
+    // changed: geschriebener Stand der betroffenen Tasks; accepted: neue Einträge für die Historie
+    public record SyncOutcome(List<Task> changed, List<TaskCompletion> accepted, List<Rejection> rejected,
+                              int rewardXP, int rewardCoins, User user, boolean levelup) {
+    }
+
+    public Outcome complete(String taskId, String userId) {
+        LocalDateTime now = LocalDateTime.now();
+        // Ein findAndModify auch bei Ablehnung: Die Pipeline lässt den Task dann unverändert und liefert ihn für die Antwort
+        Query own = Query.query(where("_id").is(mongoTemplate.getConverter().convertId(taskId, ObjectId.class)).and("userId").is(userId));
+        Document written = mongoTemplate.findAndModify(own, completion(userId, now),
+                FindAndModifyOptions.options().returnNew(true), Document.class, mongoTemplate.getCollectionName(Task.class));
+        if (written == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Task not found");
+        }
+
+        Task task = mongoTemplate.getConverter().read(Task.class, written);
+        if (!written.getBoolean(ACCEPTED, false)) {
+            // Cooldown läuft, Periode schon erfüllt oder Dauer nicht lesbar
+            task.updateCompletionStatus();
+            return new Outcome(task, false, null, false);
+        }
+        if (!task.isCompleted()) {
+            return new Outcome(task, true, null, false);
+        }
+
+        Reward reward = credit(userId, task.getRewardXP(), task.getRewardCoins(), now.toLocalDate());
+        return new Outcome(task, true, reward.user(), reward.levelup());
+    }
+
+    /**
+     * Mehrere Tasks eines Users auf einmal: ein find für alle Tasks, ein Bulk-Write, ein findAndModify
+     * für die summierten Belohnungen. Die Bulk-Updates setzen nur, wenn die Version noch der gelesenen
+     * entspricht; Tasks, die dazwischen geändert wurden, laufen einzeln über {@link #complete}.
+     * outcomes passt positionsweise zu taskIds; null für unbekannte oder fremde Tasks.
+     */
+    public BatchOutcome completeAll(List<String> taskIds, String userId) {
+        Map<String, Task> tasks = new HashMap<>();
+        mongoTemplate.find(Query.query(where("_id").in(taskIds).and("userId").is(userId)), Task.class)
+                .forEach(task -> tasks.put(task.getId(), task));
+
+        User completer = User.builder().id(userId).build();
+        Map<String, Long> readVersions = new LinkedHashMap<>();
+        boolean[] success = new boolean[taskIds.size()];
+        boolean[] completed = new boolean[taskIds.size()];
+        for (int i = 0; i < taskIds.size(); i++) {
+            Task task = tasks.get(taskIds.get(i));
+            if (task == null) {
+                continue;
+            }
+            Long version = task.getVersion();
+            success[i] = task.markAsCompleted(completer);
+            task.updateCompletionStatus();
+            completed[i] = success[i] && task.isCompleted();
+            if (success[i]) {
+                readVersions.putIfAbsent(task.getId(), version);
+            }
+        }
+
+        Set<String> conflicted = write(tasks, readVersions);
+
+        List<Outcome> outcomes = new ArrayList<>(taskIds.size());
+        User user = null;
+        boolean levelup = false;
+        int rewardXP = 0;
+        int rewardCoins = 0;
+        boolean rewarded = false;
+        Set<String> retried = new HashSet<>();
+        for (int i = 0; i < taskIds.size(); i++) {
+            String id = taskIds.get(i);
+            Task task = tasks.get(id);
+            if (task == null) {
+                outcomes.add(null);
+            } else if (conflicted.contains(id)) {
+                // Parallel geändert: dieser Task läuft atomar über den Einzelpfad, Wiederholungen im Batch zählen nicht
+                Outcome single = retried.add(id) ? completeSingle(id, userId) : null;
+                outcomes.add(single != null ? single : new Outcome(task, false, null, false));
+                if (single != null && single.user() != null) {
+                    user = single.user();
+                    levelup |= single.levelup();
+                }
+            } else {
+                outcomes.add(new Outcome(task, success[i], null, false));
+                if (completed[i]) {
+                    rewarded = true;
+                    rewardXP += task.getRewardXP();
+                    rewardCoins += task.getRewardCoins();
+                }
+            }
+        }
+
+        if (rewarded) {
+            Reward reward = credit(userId, rewardXP, rewardCoins, LocalDate.now());
+            user = reward.user();
+            levelup |= reward.levelup();
+        }
+        return new BatchOutcome(outcomes, user, levelup);
+    }
+
+    /**
+     * Spielt offline erfasste Erledigungen mehrerer Tasks ein: ein find, ein Bulk-Write, ein findAndModify
+     * für die Belohnungen. Die Einträge müssen nach Zeitpunkt sortiert sein; jeder wird mit
+     * {@link Task#mergeCompletion} gegen den Cooldown zu seinen Nachbarn geprüft. Was schon auf dem
+     * Server steht, hat Vorrang, auch wenn ein anderes Gerät einen früheren Zeitpunkt nachreicht.
+     * Tasks, die zwischen Lesen und Schreiben geändert wurden, werden frisch gelesen und erneut
+     * eingespielt; bleibt der Konflikt, werden ihre Einträge mit {@link #SYNC_CONFLICT} abgelehnt.
+     */
+    public SyncOutcome sync(String userId, List<SyncEntry> entries) {
+        Map<String, List<SyncEntry>> byTask = new LinkedHashMap<>();
+        entries.forEach(entry -> byTask.computeIfAbsent(entry.taskId(), id -> new ArrayList<>()).add(entry));
+
+        List<Task> changed = new ArrayList<>();
+        List<TaskCompletion> accepted = new ArrayList<>();
+        List<Rejection> rejected = new ArrayList<>();
+        int rewardXP = 0;
+        int rewardCoins = 0;
+        boolean rewarded = false;
+
+        Set<String> pending = byTask.keySet();
+        for (int attempt = 0; attempt < SYNC_ATTEMPTS && !pending.isEmpty(); attempt++) {
+            Map<String, Task> tasks = new HashMap<>();
+            mongoTemplate.find(Query.query(where("_id").in(pending).and("userId").is(userId)), Task.class)
+                    .forEach(task -> tasks.put(task.getId(), task));
+
+            // Ergebnisse je Task erst übernehmen, wenn sein Update gegriffen hat
+            Map<String, Long> readVersions = new LinkedHashMap<>();
+            Map<String, List<TaskCompletion>> merged = new HashMap<>();
+            Map<String, List<Rejection>> refused = new HashMap<>();
+            Map<String, Integer> completedPeriods = new HashMap<>();
+            for (String taskId : pending) {
+                Task task = tasks.get(taskId);
+                if (task == null) {
+                    byTask.get(taskId).forEach(entry -> rejected.add(new Rejection(entry, "Task not found")));
+                    continue;
+                }
+                Long version = task.getVersion();
+                for (SyncEntry entry : byTask.get(taskId)) {
+                    if (PeriodCalendar.key(task.getFrequency(), entry.at().toLocalDate()) != PeriodCalendar.currentKey(task.getFrequency())) {
+                        refused.computeIfAbsent(taskId, id -> new ArrayList<>()).add(new Rejection(entry, "Period closed"));
+                    } else if (task.isPeriodCompleted()) {
+                        refused.computeIfAbsent(taskId, id -> new ArrayList<>()).add(new Rejection(entry, "Period completed"));
+                    } else if (task.mergeCompletion(userId, entry.at())) {
+                        merged.computeIfAbsent(taskId, id -> new ArrayList<>()).add(TaskCompletion.of(taskId, Completion.builder()
+                                .timestamp(entry.at())
+                                .userId(userId)
+                                .durationMinutes(task.getParsedDuration().minutes())
+                                .build()));
+                        if (task.isPeriodCompleted()) {
+                            completedPeriods.merge(taskId, 1, Integer::sum);
+                        }
+                    } else {
+                        refused.computeIfAbsent(taskId, id -> new ArrayList<>()).add(new Rejection(entry, "Cooldown"));
+                    }
+                }
+                if (merged.containsKey(taskId)) {
+                    readVersions.put(taskId, version);
+                }
+            }
+
+            Set<String> conflicted = write(tasks, readVersions);
+            for (String taskId : pending) {
+                if (!tasks.containsKey(taskId) || conflicted.contains(taskId)) {
+                    continue;
+                }
+                Task task = tasks.get(taskId);
+                rejected.addAll(refused.getOrDefault(taskId, List.of()));
+                if (readVersions.containsKey(taskId)) {
+                    changed.add(task);
+                    accepted.addAll(merged.get(taskId));
+                }
+                int periods = completedPeriods.getOrDefault(taskId, 0);
+                if (periods > 0) {
+                    rewarded = true;
+                    rewardXP += periods * task.getRewardXP();
+                    rewardCoins += periods * task.getRewardCoins();
+                }
+            }
+            pending = conflicted;
+        }
+        pending.forEach(taskId -> byTask.get(taskId).forEach(entry -> rejected.add(new Rejection(entry, SYNC_CONFLICT))));
+
+        User user = null;
+        boolean levelup = false;
+        if (rewarded) {
+            Reward reward = credit(userId, rewardXP, rewardCoins, LocalDate.now());
+            user = reward.user();
+            levelup = reward.levelup();
+        }
+        return new SyncOutcome(changed, accepted, rejected, rewardXP, rewardCoins, user, levelup);
+    }
+
+    // Ein findAndModify für XP, Coins und Streak; levelup aus dem Stand vor der Gutschrift
+    private Reward credit(String userId, int rewardXP, int rewardCoins, LocalDate today) {
+        User user = mongoTemplate.findAndModify(Query.query(where("_id").is(userId)),
+                reward(rewardXP, rewardCoins, today), FindAndModifyOptions.options().returnNew(true), User.class);
+        if (user == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found");
+        }
+        int gainedXP = rewardXP * user.getXpFactor();
+        return new Reward(user, user.getLevel() > levelFor(user.getXp() - gainedXP));
+    }
+
+    // Schreibt den in Java berechneten Stand aller erledigten Tasks; liefert die Ids, deren Version nicht mehr passte
+    private Set<String> write(Map<String, Task> tasks, Map<String, Long> readVersions) {
+        if (readVersions.isEmpty()) {
+            return Set.of();
+        }
+        long modified;
+        try (BulkWriter writer = new BulkWriter(mongoTemplate, Task.class, readVersions.size())) {
+            readVersions.forEach((id, version) -> {
+                Task task = tasks.get(id);
+                writer.updateOne(Query.query(where("_id").is(id).and("version").is(version)), new Update()
+                        .set("completions", task.getCompletions())
+                        .set("periodCount", task.getPeriodCount())
+                        .set("periodKey", task.getPeriodKey())
+                        .set("lastCompletedAt", task.getLastCompletedAt())
+                        .set("isCompleted", task.isCompleted())
+                        .set("parsedDuration", task.getParsedDuration()));
+            });
+            writer.flush();
+            modified = writer.getModified();
+        }
+        if (modified == readVersions.size()) {
+            return Set.of();
+        }
+
+        // Selten: herausfinden, welche Updates nicht gegriffen haben. Eigene Schreibvorgänge erkennt man an der
+        // um eins erhöhten Version zusammen mit unserem Zähler und lastCompletedAt
+        Query written = Query.query(where("_id").in(readVersions.keySet()));
+        written.fields().include("_id", "version", "periodCount", "lastCompletedAt");
+        Set<String> conflicted = new HashSet<>(readVersions.keySet());
+        for (Task stored : mongoTemplate.find(written, Task.class)) {
+            Task ours = tasks.get(stored.getId());
+            Long read = readVersions.get(stored.getId());
+            if (stored.getVersion() != null && stored.getVersion() == (read == null ? 0 : read) + 1
+                    && stored.getPeriodCount() == ours.getPeriodCount()
+                    && ours.getLastCompletedAt().truncatedTo(ChronoUnit.MILLIS).equals(stored.getLastCompletedAt())) {
+                conflicted.remove(stored.getId());
+            }
+        }
+        return conflicted;
+    }
+
+    private Outcome completeSingle(String taskId, String userId) {
+        try {
+            return complete(taskId, userId);
+        } catch (ResponseStatusException e) {
+            // Inzwischen gelöscht
+            return null;
+        }
+    }
+
+    // Muss nach jeder Änderung an den Tasks eines Users laufen, damit reward() den richtigen Streak-Takt kennt
+    public void refreshStreakFrequency(String userId, List<Task> tasks) {
+        mongoTemplate.updateFirst(Query.query(where("_id").is(userId)),
+                new Update().set("streakFrequency", lowestFrequency(tasks)), User.class);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        try {
+            long filled = backfillStreakFrequency();
+            if (filled > 0) {
+                logger.info("Streak-Frequenz für {} User nachgetragen", filled);
+            }
+        } catch (DataAccessException e) {
+            // Nicht am Start scheitern; der nächste Start versucht es erneut
+            logger.warn("Nachtragen der Streak-Frequenz fehlgeschlagen: {}", e.getMessage());
+        }
+        try {
+            long parsed = backfillParsedDuration();
+            if (parsed > 0) {
+                logger.info("Dauer für {} Tasks nachgetragen", parsed);
+            }
+        } catch (DataAccessException e) {
+            logger.warn("Nachtragen der Dauer fehlgeschlagen: {}", e.getMessage());
+        }
+    }
+
+    // Tasks, die vor dem Parsen beim Speichern angelegt wurden; complete() nimmt nur Tasks mit geparster Dauer an
+    long backfillParsedDuration() {
+        Criteria missing = where("parsedDuration").is(null).and("duration").ne(null);
+        Query query = Query.query(missing);
+        query.fields().include("_id", "duration");
+
+        long parsed;
+        try (BulkWriter tasks = new BulkWriter(mongoTemplate, Task.class, 500);
+             Stream<Task> legacy = mongoTemplate.stream(query, Task.class)) {
+            legacy.forEach(task -> {
+                try {
+                    task.parseDuration();
+                } catch (IllegalArgumentException e) {
+                    // Nicht lesbar: bleibt ohne Dauer und lässt sich erst nach dem Bearbeiten erledigen
+                    return;
+                }
+                tasks.updateOne(Query.query(where("_id").is(task.getId()).andOperator(missing)),
+                        new Update().set("parsedDuration", task.getParsedDuration()));
+            });
+            tasks.flush();
+            parsed = tasks.getModified();
+        }
+        return parsed;
+    }
+
+    long backfillStreakFrequency() {
+        Criteria missing = where("streakFrequency").exists(false);
+        if (!mongoTemplate.exists(Query.query(missing), User.class)) {
+            return 0;
+        }
+
+        List<Document> branches = Arrays.stream(FrequencyOrder.values())
+                .map(order -> new Document("case", new Document("$eq", List.of("$frequency", order.name())))
+                        .append("then", order.getOrder()))
+                .toList();
+        Aggregation lowest = Aggregation.newAggregation(
+                stage("$match", new Document("frequency", new Document("$in",
+                        Arrays.stream(FrequencyOrder.values()).map(Enum::name).toList()))),
+                stage("$group", new Document("_id", "$userId").append("order", new Document("$min",
+                        new Document("$switch", new Document("branches", branches).append("default", 0))))),
+                // DAILY setzt das updateMulti unten für alle übrigen User
+                stage("$match", new Document("order", new Document("$gt", FrequencyOrder.DAILY.getOrder()))));
+
+        long filled;
+        try (BulkWriter users = new BulkWriter(mongoTemplate, User.class, 500);
+             Stream<Document> groups = mongoTemplate.aggregateStream(lowest, Task.class, Document.class)) {
+            groups.forEach(group -> {
+                Frequency frequency = Arrays.stream(FrequencyOrder.values())
+                        .filter(order -> order.getOrder() == group.getInteger("order"))
+                        .map(order -> Frequency.valueOf(order.name()))
+                        .findFirst().orElse(Frequency.DAILY);
+                users.updateOne(Query.query(where("_id").is(group.get("_id")).andOperator(missing)),
+                        new Update().set("streakFrequency", frequency));
+            });
+            users.flush();
+            filled = users.getModified();
+        }
+        return filled + mongoTemplate.updateMulti(Query.query(missing),
+                new Update().set("streakFrequency", Frequency.DAILY), User.class).getModifiedCount();
+    }
+
+    // Dauer geparst, weniger als times Erledigungen in der laufenden Periode (wie Task#isPeriodCompleted) und
+    // kein laufender Cooldown (wie Task#isCooldownStillActive); erwartet _count aus completion()
+    static Document accepts(LocalDateTime now) {
+        Date at = date(now);
+        Object last = new Document("$ifNull", List.of("$lastCompletedAt", new Document("$max", "$periodCompletions.timestamp")));
+        Document cooldownOver = new Document("$switch", new Document("branches", List.of(
+                new Document("case", new Document("$in", List.of("$parsedDuration.unit", TIME_UNITS)))
+                        .append("then", new Document("$lte", List.of(last, new Document("$subtract",
+                                List.of(at, new Document("$multiply", List.of("$parsedDuration.minutes", MINUTE_MILLIS))))))),
+                new Document("case", new Document("$eq", List.of("$frequency", Frequency.DAILY.name())))
+                        .append("then", new Document("$lte", List.of(last, new Date(at.getTime() - MINUTE_MILLIS))))))
+                .append("default", new Document("$lt", List.of(last, date(now.toLocalDate().atStartOfDay())))));
+
+        return new Document("$and", List.of(
+                // null und fehlend sortieren vor jedem Dokument
+                new Document("$gt", Arrays.asList("$parsedDuration", null)),
+                new Document("$lt", List.of("$_count", new Document("$ifNull", List.of("$times", 1)))),
+                new Document("$or", List.of(
+                        new Document("$eq", List.of(new Document("$ifNull", List.of(last, "")), "")),
+                        cooldownOver))));
+    }
+
+    /**
+     * Task#markAsCompleted: Erledigungen alter Perioden verwerfen, Zähler erhöhen, Status setzen. Nur wenn
+     * {@link #accepts} zutrifft; sonst bleibt der Task, wie er ist. {@link #ACCEPTED} hält fest, ob dieser
+     * Aufruf gezählt hat, und bleibt am Dokument stehen, bis der nächste ihn überschreibt.
+     */
+    static AggregationUpdate completion(String userId, LocalDateTime now) {
+        LocalDate today = now.toLocalDate();
+        Document entry = new Document("timestamp", date(now))
+                .append("userId", userId)
+                .append("durationMinutes", "$parsedDuration.minutes");
+        String accepted = "$" + ACCEPTED;
+
+        return AggregationUpdate.from(List.of(
+                stage("$set", new Document("_key", byFrequency("$frequency", f -> PeriodCalendar.key(f, today), 0))
+                        .append("_start", byFrequency("$frequency", f -> periodStart(f, today), EPOCH))),
+                stage("$set", new Document("_kept", kept("$_start"))),
+                stage("$set", new Document("_count", currentCount("$_key", "$_kept"))),
+                stage("$set", new Document(ACCEPTED, accepts(now))),
+                stage("$set", new Document("periodCount", ifAccepted(accepted, new Document("$add", List.of("$_count", 1)), "$periodCount"))
+                        .append("periodKey", ifAccepted(accepted, "$_key", "$periodKey"))
+                        .append("lastCompletedAt", ifAccepted(accepted, date(now), "$lastCompletedAt"))
+                        .append("periodCompletions", ifAccepted(accepted, new Document("$slice", List.of(
+                                new Document("$concatArrays", List.of("$_kept", List.of(entry))),
+                                new Document("$multiply", List.of(new Document("$max", List.of("$times", 1)), -1)))),
+                                "$periodCompletions"))
+                        .append("isCompleted", ifAccepted(accepted,
+                                new Document("$gte", List.of(new Document("$add", List.of("$_count", 1)), "$times")), "$isCompleted"))
+                        // Wie das save eines Tasks; completeAll erkennt parallele Erledigungen an der Version
+                        .append("version", ifAccepted(accepted,
+                                new Document("$add", List.of(new Document("$ifNull", List.of("$version", 0L)), 1L)), "$version"))),
+                stage("$unset", List.of("_key", "_start", "_kept", "_count"))));
+    }
+
+    private static Document ifAccepted(String accepted, Object then, Object otherwise) {
+        return new Document("$cond", List.of(accepted, then, otherwise));
+    }
+
+    // Erledigungen ab start, in der laufenden Periode also die, die bleiben
+    private static Document kept(Object start) {
+        return new Document("$filter", new Document("input", new Document("$ifNull", List.of("$periodCompletions", List.of())))
+                .append("cond", new Document("$gte", List.of("$$this.timestamp", start))));
+    }
+
+    private static Document kept(LocalDate today) {
+        return kept(byFrequency("$frequency", f -> periodStart(f, today), EPOCH));
+    }
+
+    // Task#currentPeriodCount: Tasks ohne Zähler zählen die Erledigungen der laufenden Periode
+    private static Document currentCount(Object key, Object kept) {
+        return new Document("$cond", List.of(
+                new Document("$eq", List.of("$periodKey", key)),
+                "$periodCount",
+                new Document("$cond", List.of(
+                        new Document("$eq", List.of(new Document("$ifNull", List.of("$periodKey", "")), "")),
+                        new Document("$size", kept),
+                        0))));
+    }
+
+    // User#addXP, Coins und Streak wie bisher applyRewardsToUser; streakFrequency ersetzt das Laden aller Tasks
+    static AggregationUpdate reward(int rewardXP, int rewardCoins, LocalDate today) {
+        Object streakFrequency = new Document("$ifNull", List.of("$streakFrequency", Frequency.DAILY.name()));
+        Document counted = new Document("$gte", List.of(
+                new Document("$ifNull", List.of("$lastStreakUpdate", EPOCH)),
+                byFrequency(streakFrequency, f -> periodStart(f, today), date(today.atStartOfDay()))));
+
+        return AggregationUpdate.from(List.of(
+                stage("$set", new Document("xp", new Document("$add", List.of(
+                        new Document("$ifNull", List.of("$xp", 0)),
+                        new Document("$multiply", List.of(rewardXP, new Document("$ifNull", List.of("$xpFactor", 1)))))))
+                        .append("coins", new Document("$add", List.of(new Document("$ifNull", List.of("$coins", 0)), rewardCoins)))
+                        .append("streakBroken", new Document("$literal", false))
+                        .append("_counted", counted)),
+                stage("$set", new Document("level", new Document("$subtract", List.of(
+                        new Document("$size", new Document("$filter", new Document("input", LEVEL_THRESHOLDS)
+                                .append("cond", new Document("$lte", List.of("$$this", "$xp"))))),
+                        1)))
+                        .append("streak", new Document("$cond", List.of("$_counted", "$streak",
+                                new Document("$add", List.of(new Document("$ifNull", List.of("$streak", 0)), 1)))))
+                        .append("lastStreakUpdate", new Document("$cond", List.of("$_counted", "$lastStreakUpdate",
+                                date(today.atStartOfDay()))))),
+                stage("$set", new Document("currentXP", new Document("$toInt", new Document("$subtract",
+                        List.of("$xp", new Document("$arrayElemAt", List.of(LEVEL_THRESHOLDS, "$level"))))))
+                        .append("xpGoal", new Document("$toInt", new Document("$arrayElemAt", List.of(XP_GOALS, "$level"))))),
+                stage("$unset", "_counted")));
+    }
+
+    static int levelFor(long xp) {
+        int level = 0;
+        while (level + 1 < LEVEL_THRESHOLDS.size() && LEVEL_THRESHOLDS.get(level + 1) <= xp) {
+            level++;
+        }
+        return level;
+    }
+
+    private static Frequency lowestFrequency(List<Task> tasks) {
+        return tasks.stream()
+                .map(Task::getFrequency)
+                .filter(f -> f != null && f != Frequency.NONE)
+                .min(Comparator.comparingInt(f -> FrequencyOrder.valueOf(f.name()).getOrder()))
+                .orElse(Frequency.DAILY);
+    }
+
+    private static Document byFrequency(Object frequency, Function<Frequency, Object> value, Object fallback) {
+        List<Document> branches = ROLLING.stream()
+                .map(f -> new Document("case", new Document("$eq", List.of(frequency, f.name()))).append("then", value.apply(f)))
+                .toList();
+        return new Document("$switch", new Document("branches", branches).append("default", fallback));
+    }
+
+    private static Date periodStart(Frequency frequency, LocalDate today) {
+        return date(PeriodCalendar.periodStart(frequency, today).atStartOfDay());
+    }
+
+    // Wie der LocalDateTime-Converter von Spring: lokale Zeit in der Zone des Servers
+    private static Date date(LocalDateTime dateTime) {
+        return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    private static AggregationOperation stage(String operator, Object body) {
+        return context -> new Document(operator, body);
+    }
+}
@@ -0,0 +1,229 @@
+package com.habitxp.backend.service;
+
+import com.habitxp.backend.model.Completion;
+import com.habitxp.backend.model.CompletionHistory;
+import com.habitxp.backend.model.Frequency;
+import com.habitxp.backend.model.Task;
+import com.habitxp.backend.model.TaskCompletion;
+import com.habitxp.backend.model.TaskHistory;
+import com.habitxp.backend.repository.TaskCompletionRepository;
+import com.habitxp.backend.repository.TaskHistoryRepository;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Historie aller Erledigungen. Neue Erledigungen sind Inserts in task_completions;
+ * ältere Bestände liegen gepackt in task_histories (ein Binärfeld pro Task, siehe
+ * {@link CompletionHistory}). Am Task selbst bleibt nur die laufende Periode. Ältere
+ * Task-Dokumente mit eingebetteter Liste werden beim Start einmalig gepackt umgezogen.
+ */
+@Service
+@RequiredArgsConstructor
+public class CompletionHistoryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompletionHistoryService.class);
+
+    // Feldname der früher eingebetteten, vollständigen Liste
+    static final String LEGACY_FIELD = "completions";
+
+    private static final int ARCHIVE_ATTEMPTS = 3;
+
+    private final TaskCompletionRepository completionRepository;
+    private final TaskHistoryRepository historyRepository;
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${scheduler.archive.retention-days:0}")
+    private int retentionDays;
+
+    // Ein ungeordneter Bulk-Insert; schon vorhandene Einträge (Migration, erneutes Nachtragen) werden übersprungen
+    public void recordAll(List<TaskCompletion> completions) {
+        if (completions.isEmpty()) {
+            return;
+        }
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, TaskCompletion.class)
+                    .insert(completions)
+                    .execute();
+        } catch (BulkOperationException e) {
+            boolean onlyDuplicates = e.getErrors().stream().allMatch(error -> error.getCode() == 11000);
+            if (!onlyDuplicates) {
+                throw e;
+            }
+        }
+    }
+
+    // Ids aus ids, die schon in task_completions stehen
+    public Set<String> recorded(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return Set.of();
+        }
+        Query query = Query.query(where("_id").in(ids));
+        query.fields().include("_id");
+        Set<String> recorded = new HashSet<>();
+        mongoTemplate.find(query, TaskCompletion.class).forEach(completion -> recorded.add(completion.getId()));
+        return recorded;
+    }
+
+    // Neueste zuerst; das gepackte Archiv wird nur dekodiert, wenn die Einzeleinträge nicht reichen
+    public List<Completion> history(String taskId, int limit) {
+        List<Completion> recent = completionRepository.findByTaskIdOrderByTimestampDesc(taskId, PageRequest.of(0, limit)).stream()
+                .map(TaskCompletion::toCompletion)
+                .toList();
+        if (recent.size() >= limit) {
+            return recent;
+        }
+        TaskHistory archived = historyRepository.findById(taskId).orElse(null);
+        if (archived == null || archived.getCount() == 0) {
+            return recent;
+        }
+
+        Set<Long> seen = new HashSet<>();
+        List<Completion> merged = new ArrayList<>(recent);
+        recent.forEach(completion -> seen.add(completion.getTimestamp().toEpochSecond(ZoneOffset.UTC)));
+        for (Completion completion : archived.getCompletions().completions()) {
+            if (seen.add(completion.getTimestamp().toEpochSecond(ZoneOffset.UTC))) {
+                merged.add(completion);
+            }
+        }
+        merged.sort(Comparator.comparing(Completion::getTimestamp).reversed());
+        return merged.size() > limit ? merged.subList(0, limit) : merged;
+    }
+
+    // Packt Erledigungen in das Archiv des Tasks; bedingt auf den gelesenen Stand, damit parallele Läufe nichts verlieren
+    public void archive(String taskId, String userId, List<Completion> completions) {
+        if (completions.isEmpty()) return;
+
+        for (int attempt = 0; attempt < ARCHIVE_ATTEMPTS; attempt++) {
+            TaskHistory existing = historyRepository.findById(taskId).orElse(null);
+            CompletionHistory packed = existing == null
+                    ? CompletionHistory.encode(completions)
+                    : existing.getCompletions().append(completions);
+            List<Completion> all = packed.completions();
+            TaskHistory updated = TaskHistory.builder()
+                    .id(taskId)
+                    .userId(existing != null && existing.getUserId() != null ? existing.getUserId() : userId)
+                    .count(all.size())
+                    .oldest(all.get(0).getTimestamp())
+                    .newest(all.get(all.size() - 1).getTimestamp())
+                    .completions(packed)
+                    .expireAt(retentionDays > 0 ? all.get(all.size() - 1).getTimestamp().plusDays(retentionDays) : null)
+                    .build();
+
+            if (existing == null) {
+                try {
+                    historyRepository.insert(updated);
+                    return;
+                } catch (DuplicateKeyException e) {
+                    continue;
+                }
+            }
+            Query sameState = Query.query(where("_id").is(taskId).and("count").is(existing.getCount()).and("newest").is(existing.getNewest()));
+            Update update = new Update()
+                    .set("userId", updated.getUserId())
+                    .set("count", updated.getCount())
+                    .set("oldest", updated.getOldest())
+                    .set("newest", updated.getNewest())
+                    .set("completions", packed)
+                    .set("expireAt", updated.getExpireAt());
+            if (mongoTemplate.updateFirst(sameState, update, TaskHistory.class).getModifiedCount() > 0) {
+                return;
+            }
+        }
+        throw new IllegalStateException("Archiv von Task " + taskId + " wird gleichzeitig geändert");
+    }
+
+    public void deleteHistory(String taskId) {
+        completionRepository.deleteByTaskId(taskId);
+        historyRepository.deleteById(taskId);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        try {
+            long migrated = migrateLegacy();
+            if (migrated > 0) {
+                logger.info("Erledigungen von {} Tasks in die Historie verschoben", migrated);
+            }
+        } catch (DataAccessException e) {
+            // Nicht am Start scheitern; der nächste Start versucht es erneut
+            logger.warn("Migration der Erledigungen fehlgeschlagen: {}", e.getMessage());
+        }
+    }
+
+    long migrateLegacy() {
+        Query query = Query.query(where(LEGACY_FIELD).exists(true));
+        query.fields().include("_id", "userId", "frequency", "times", LEGACY_FIELD);
+
+        long migrated = 0;
+        try (Stream<Document> tasks = mongoTemplate.stream(query, Document.class, mongoTemplate.getCollectionName(Task.class))) {
+            for (Iterator<Document> it = tasks.iterator(); it.hasNext(); ) {
+                migrate(it.next());
+                migrated++;
+            }
+        }
+        return migrated;
+    }
+
+    private void migrate(Document legacy) {
+        Object rawId = legacy.get("_id");
+        String taskId = rawId.toString();
+        List<Completion> completions = new ArrayList<>();
+        for (Document entry : legacy.getList(LEGACY_FIELD, Document.class, List.of())) {
+            Completion completion = mongoTemplate.getConverter().read(Completion.class, entry);
+            if (completion.getTimestamp() != null) {
+                completions.add(completion);
+            }
+        }
+
+        // Mehrfaches Archivieren derselben Einträge (abgebrochener Lauf) ist unschädlich
+        archive(taskId, legacy.getString("userId"), completions);
+
+        String frequency = legacy.getString("frequency");
+        Integer times = legacy.getInteger("times");
+        Task task = Task.builder()
+                .frequency(frequency != null ? Frequency.valueOf(frequency) : Frequency.NONE)
+                .times(times != null ? times : 1)
+                .completions(completions)
+                .build();
+        task.retainCurrentPeriod();
+        LocalDateTime lastCompletedAt = completions.stream()
+                .map(Completion::getTimestamp)
+                .max(LocalDateTime::compareTo)
+                .orElse(null);
+
+        // Ohne Entity-Typ, damit "completions" nicht auf das neue Feld gemappt wird
+        Update update = new Update()
+                .set("periodCompletions", task.getCompletions())
+                .set("lastCompletedAt", lastCompletedAt)
+                .unset(LEGACY_FIELD);
+        mongoTemplate.updateFirst(Query.query(where("_id").is(rawId).and(LEGACY_FIELD).exists(true)),
+                update, mongoTemplate.getCollectionName(Task.class));
+    }
+}
@@ -0,0 +1,97 @@
+package com.habitxp.backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Wiederholt Read-Modify-Write-Abläufe auf versionierten Dokumenten (Task, User), wenn das save
+ * an der {@code @Version}-Prüfung scheitert. Jeder Versuch muss frisch lesen. Zwischen den Versuchen
+ * wird zufällig bis zu base * 2^n gewartet (Full Jitter), damit zwei Geräte nicht im Gleichtakt
+ * erneut kollidieren. Sind alle Versuche verbraucht, antwortet der Request mit 409.
+ */
+@Component
+public class ConflictRetry {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConflictRetry.class);
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+
+    public ConflictRetry(@Value("${concurrency.retry.max-attempts:4}") int maxAttempts,
+                         @Value("${concurrency.retry.base-delay-ms:10}") long baseDelayMs,
+                         @Value("${concurrency.retry.max-delay-ms:200}") long maxDelayMs) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    public record Snapshot(String operation, long calls, long conflicts, long exhausted) {
+    }
+
+    private static final class Counters {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder conflicts = new LongAdder();
+        private final LongAdder exhausted = new LongAdder();
+    }
+
+    public <T> T run(String operation, Supplier<T> attempt) {
+        Counters stats = counters.computeIfAbsent(operation, name -> new Counters());
+        stats.calls.increment();
+        for (int n = 1; ; n++) {
+            try {
+                return attempt.get();
+            } catch (OptimisticLockingFailureException e) {
+                stats.conflicts.increment();
+                if (n >= maxAttempts) {
+                    stats.exhausted.increment();
+                    logger.warn("{}: nach {} Versuchen weiter im Konflikt", operation, n);
+                    throw new ResponseStatusException(HttpStatus.CONFLICT, "Concurrent update, please retry");
+                }
+                pause(n);
+            }
+        }
+    }
+
+    public void run(String operation, Runnable attempt) {
+        run(operation, () -> {
+            attempt.run();
+            return null;
+        });
+    }
+
+    public List<Snapshot> metrics() {
+        return counters.entrySet().stream()
+                .map(entry -> new Snapshot(entry.getKey(), entry.getValue().calls.sum(),
+                        entry.getValue().conflicts.sum(), entry.getValue().exhausted.sum()))
+                .sorted(Comparator.comparing(Snapshot::operation))
+                .toList();
+    }
+
+    private void pause(int attempt) {
+        long ceiling = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt, 20));
+        if (ceiling <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Interrupted");
+        }
+    }
+}
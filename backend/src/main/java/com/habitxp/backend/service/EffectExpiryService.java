@@ -0,0 +1,132 @@
+package com.habitxp.backend.service;
+
+import com.habitxp.backend.model.User;
+import com.habitxp.backend.scheduler.JobResult;
+import com.habitxp.backend.scheduler.JobRunner;
+import com.habitxp.backend.scheduler.UserUpdates;
+import com.mongodb.client.result.UpdateResult;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Lässt XP-Boosts und Streak-Freezes pünktlich ablaufen. Statt stündlich alle User zu prüfen,
+ * wird über die Indizes auf xpFactorUntil/StreakFreezeUntil der nächste Ablaufzeitpunkt gesucht
+ * und genau dann ein Wecker gestellt. Beim Aufwachen laufen alle fälligen Effekte per updateMany ab.
+ */
+@Service
+@RequiredArgsConstructor
+public class EffectExpiryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(EffectExpiryService.class);
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(1);
+
+    private final MongoTemplate mongoTemplate;
+    private final TaskScheduler taskScheduler;
+    private final JobRunner jobRunner;
+
+    private ScheduledFuture<?> wakeUp;
+    private Instant wakeUpAt;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        try {
+            reschedule();
+        } catch (DataAccessException e) {
+            // Nicht am Start scheitern; der Resync versucht es später erneut
+            logger.warn("Ablaufzeitpunkte konnten nicht geladen werden: {}", e.getMessage());
+        }
+    }
+
+    // Nach dem Kauf eines Bonus: Wecker vorziehen, falls dieser Effekt früher abläuft
+    public void effectScheduled(User user) {
+        Stream.of(user.getXpFactorUntil(), user.getStreakFreezeUntil())
+                .filter(until -> until != null)
+                .forEach(this::wakeUpAt);
+    }
+
+    public JobResult expireDue() {
+        Instant now = Instant.now();
+        UpdateResult xp = mongoTemplate.updateMulti(Query.query(UserUpdates.xpFactorExpiredFilter(now)), UserUpdates.xpFactorReset(), User.class);
+        UpdateResult freeze = mongoTemplate.updateMulti(Query.query(UserUpdates.streakFreezeExpiredFilter(now)), UserUpdates.streakFreezeReset(), User.class);
+        logger.info("Effekte abgelaufen: {} XP-Boosts, {} Streak-Freezes", xp.getModifiedCount(), freeze.getModifiedCount());
+
+        synchronized (this) {
+            if (wakeUp != null) {
+                wakeUp.cancel(false);
+            }
+            wakeUp = null;
+            wakeUpAt = null;
+        }
+        JobResult resync = reschedule();
+        return new JobResult(xp.getMatchedCount() + freeze.getMatchedCount() + resync.scanned(),
+                xp.getModifiedCount() + freeze.getModifiedCount());
+    }
+
+    // Sicherheitsnetz für Effekte, die eine andere Instanz angelegt hat
+    @Scheduled(fixedDelayString = "${scheduler.expiry.resync-ms:900000}", initialDelayString = "${scheduler.expiry.resync-ms:900000}")
+    public void rescheduleFromStore() {
+        jobRunner.trigger("effect-resync", this::reschedule);
+    }
+
+    private JobResult reschedule() {
+        List<Instant> next = Stream.of(nextExpiry("xpFactorUntil"), nextExpiry("StreakFreezeUntil"))
+                .filter(until -> until != null)
+                .toList();
+        next.forEach(this::wakeUpAt);
+        return new JobResult(next.size(), 0);
+    }
+
+    private Instant nextExpiry(String field) {
+        Query query = Query.query(where(field).ne(null)).with(Sort.by(Sort.Direction.ASC, field)).limit(1);
+        query.fields().include(field);
+        User next = mongoTemplate.findOne(query, User.class);
+        if (next == null) return null;
+        return "xpFactorUntil".equals(field) ? next.getXpFactorUntil() : next.getStreakFreezeUntil();
+    }
+
+    private synchronized void wakeUpAt(Instant until) {
+        // Die Filter prüfen "until < now", also knapp nach dem Ablauf aufwachen
+        Instant at = until.plusMillis(1);
+        // Ein schon ausgelöster Wecker zählt nicht mehr als gestellt
+        if (wakeUpAt != null && !at.isBefore(wakeUpAt) && !wakeUp.isDone()) return;
+
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+        }
+        wakeUpAt = at;
+        wakeUp = taskScheduler.schedule(() -> wokeUp(at), at);
+    }
+
+    private void wokeUp(Instant at) {
+        // Vor dem Start abräumen: Sonst bliebe der Wecker auf einem vergangenen Zeitpunkt stehen und
+        // jeder spätere Ablauf würde ignoriert
+        synchronized (this) {
+            if (at.equals(wakeUpAt)) {
+                wakeUp = null;
+                wakeUpAt = null;
+            }
+        }
+        if (!jobRunner.trigger("effect-expiry", this::expireDue)) {
+            // Läuft gerade, z.B. weil dessen reschedule einen schon fälligen Ablauf gefunden hat: gleich erneut versuchen
+            wakeUpAt(Instant.now().plus(RETRY_DELAY));
+        }
+    }
+}
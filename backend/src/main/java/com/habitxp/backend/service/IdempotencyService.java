@@ -0,0 +1,141 @@
+package com.habitxp.backend.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.habitxp.backend.model.IdempotencyRecord;
+import com.habitxp.backend.repository.IdempotencyRecordRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Führt Requests mit Idempotency-Key höchstens einmal aus. Die Antwort liegt danach in einem
+ * LRU-Cache der Instanz und in idempotency_keys (TTL), sodass eine Wiederholung mit einem Lookup
+ * beantwortet wird, auch wenn sie auf einer anderen Instanz landet. Ein zweiter Request mit
+ * demselben Key, solange der erste noch läuft, bekommt 409. Fehlgeschlagene Requests werden nicht
+ * gespeichert und dürfen mit demselben Key wiederholt werden.
+ */
+@Service
+@RequiredArgsConstructor
+public class IdempotencyService {
+
+    private static final int MAX_KEY_LENGTH = 200;
+
+    private final IdempotencyRecordRepository repository;
+    private final MongoTemplate mongoTemplate;
+    private final ObjectMapper objectMapper;
+
+    @Value("${idempotency.ttl-hours:24}")
+    private long ttlHours;
+
+    // Höchstdauer eines Requests; danach gilt ein nicht abgeschlossener Eintrag als abgebrochen
+    @Value("${idempotency.pending-seconds:60}")
+    private long pendingSeconds;
+
+    @Value("${idempotency.cache-size:10000}")
+    private int cacheSize;
+
+    private record Cached(String fingerprint, String response, Instant expiresAt) {
+    }
+
+    private final Map<String, Cached> cache = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > cacheSize;
+        }
+    });
+
+    public <T> T execute(String operation, String userId, String key, String fingerprint, Class<T> type, Supplier<T> action) {
+        if (key == null || key.isBlank()) {
+            return action.get();
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Idempotency-Key too long");
+        }
+
+        String id = operation + ":" + userId + ":" + key;
+        Instant now = Instant.now();
+
+        Cached cached = cache.get(id);
+        if (cached != null && cached.expiresAt().isAfter(now)) {
+            return replay(cached.fingerprint(), cached.response(), fingerprint, type);
+        }
+
+        IdempotencyRecord existing = repository.findById(id).orElse(null);
+        if (existing != null) {
+            if (existing.isDone()) {
+                cache.put(id, new Cached(existing.getFingerprint(), existing.getResponse(), existing.getExpireAt()));
+                return replay(existing.getFingerprint(), existing.getResponse(), fingerprint, type);
+            }
+            if (existing.getExpireAt().isAfter(now)) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Request with this Idempotency-Key is still in progress");
+            }
+            // Abgebrochener Request (z.B. Neustart mitten im Request): Key wieder freigeben
+            mongoTemplate.remove(Query.query(where("_id").is(id).and("done").is(false).and("expireAt").lt(now)),
+                    IdempotencyRecord.class);
+        }
+
+        try {
+            repository.insert(IdempotencyRecord.builder()
+                    .id(id)
+                    .fingerprint(fingerprint)
+                    .createdAt(now)
+                    .expireAt(now.plusSeconds(pendingSeconds))
+                    .build());
+        } catch (DuplicateKeyException e) {
+            // Ein paralleler Request mit demselben Key war schneller
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Request with this Idempotency-Key is still in progress");
+        }
+
+        T result;
+        try {
+            result = action.get();
+        } catch (RuntimeException e) {
+            repository.deleteById(id);
+            throw e;
+        }
+
+        String response = write(result);
+        Instant expireAt = Instant.now().plus(Duration.ofHours(ttlHours));
+        mongoTemplate.updateFirst(Query.query(where("_id").is(id)),
+                new Update().set("done", true).set("response", response).set("expireAt", expireAt),
+                IdempotencyRecord.class);
+        cache.put(id, new Cached(fingerprint, response, expireAt));
+        return result;
+    }
+
+    private <T> T replay(String storedFingerprint, String response, String fingerprint, Class<T> type) {
+        if (!Objects.equals(storedFingerprint, fingerprint)) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, "Idempotency-Key was used for a different request");
+        }
+        try {
+            return objectMapper.readValue(response, type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Gespeicherte Antwort nicht lesbar", e);
+        }
+    }
+
+    private String write(Object result) {
+        try {
+            return objectMapper.writeValueAsString(result);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Antwort nicht serialisierbar", e);
+        }
+    }
+}
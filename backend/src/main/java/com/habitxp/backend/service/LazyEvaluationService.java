@@ -0,0 +1,199 @@
+package com.habitxp.backend.service;
+
+import com.habitxp.backend.model.Frequency;
+import com.habitxp.backend.model.PeriodCalendar;
+import com.habitxp.backend.model.Space;
+import com.habitxp.backend.model.Task;
+import com.habitxp.backend.model.User;
+import com.habitxp.backend.repository.UserRepository;
+import com.habitxp.backend.scheduler.TaskUpdates;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Lazy-Modus: Statt jede Nacht alle User zu bestrafen, werden die verpassten Mitternächte eines Users
+ * beim nächsten Zugriff in einem Schritt nachgespielt. Pro Tag gelten dieselben Regeln in derselben
+ * Reihenfolge wie im Wartungslauf (HP-Strafe, Streak-Reset, Deadlines), daher ist das Ergebnis
+ * unabhängig davon, wann der User zurückkommt.
+ */
+@Service
+@RequiredArgsConstructor
+public class LazyEvaluationService {
+
+    private final UserRepository userRepository;
+    private final MongoTemplate mongoTemplate;
+    private final ConflictRetry conflictRetry;
+
+    @Value("${scheduler.lazy:false}")
+    private boolean lazy;
+
+    @Value("${scheduler.default-zone:}")
+    private String defaultZone;
+
+    // Mehr Tage nachzuspielen ändert nichts mehr; Health und Coins sind dann längst bei 0
+    @Value("${scheduler.lazy.max-replay-days:400}")
+    private int maxReplayDays;
+
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    public User evaluate(User user) {
+        if (!lazy) return user;
+
+        // Eine parallele Gutschrift erhöht die Version; dann mit dem frischen Stand erneut nachspielen
+        AtomicReference<User> current = new AtomicReference<>(user);
+        return conflictRetry.run("lazy-evaluation", () -> evaluateOnce(current));
+    }
+
+    private User evaluateOnce(AtomicReference<User> current) {
+        User user = current.get();
+        ZoneId zone = zoneOf(user);
+        LocalDate today = PeriodCalendar.localDate(Instant.now(), zone);
+        LocalDate last = user.getLastEvaluatedDate();
+        if (last != null && !last.isBefore(today)) return user;
+
+        List<Task> tasks = last == null ? List.of() : mongoTemplate.find(Query.query(where("userId").is(user.getId())), Task.class);
+        Replay replay = replay(user, tasks, last, today, zone);
+
+        // Nur wer den alten Stand noch vorfindet, schreibt; ein paralleler Zugriff hat sonst schon nachgespielt
+        Query unchanged = Query.query(where("_id").is(user.getId()).and("lastEvaluatedDate").is(last)
+                .and("version").is(user.getVersion()));
+        Update update = new Update()
+                .set("lastEvaluatedDate", today)
+                .set("health", user.getHealth())
+                .set("coins", user.getCoins())
+                .set("streak", user.getStreak())
+                .set("streakBroken", user.isStreakBroken())
+                .set("StreakFreezeActive", user.isStreakFreezeActive());
+        if (user.getStreakFreezeUntil() == null) {
+            update.unset("StreakFreezeUntil");
+        }
+        if (mongoTemplate.updateFirst(unchanged, update, User.class).getModifiedCount() == 0) {
+            User fresh = userRepository.findById(user.getId()).orElse(null);
+            if (fresh == null) {
+                return user;
+            }
+            if (fresh.getLastEvaluatedDate() != null && !fresh.getLastEvaluatedDate().isBefore(today)) {
+                // Ein paralleler Zugriff hat schon nachgespielt
+                return fresh;
+            }
+            current.set(fresh);
+            throw new OptimisticLockingFailureException("User " + user.getId() + " wurde parallel geändert");
+        }
+        // updateFirst hat die Version erhöht
+        if (user.getVersion() != null) {
+            user.setVersion(user.getVersion() + 1);
+        }
+
+        persistTasks(replay);
+        return user;
+    }
+
+    Replay replay(User user, List<Task> tasks, LocalDate last, LocalDate today, ZoneId zone) {
+        Replay replay = new Replay(new ArrayList<>(tasks));
+        if (last == null) {
+            // Erster Zugriff seit Einführung: ab heute zählen, nichts rückwirkend bestrafen
+            user.setLastEvaluatedDate(today);
+            return replay;
+        }
+
+        LocalDate from = last.plusDays(1);
+        if (from.isBefore(today.minusDays(maxReplayDays))) {
+            from = today.minusDays(maxReplayDays);
+        }
+        for (LocalDate day = from; !day.isAfter(today); day = day.plusDays(1)) {
+            midnight(user, replay, day, day.atStartOfDay(zone).toInstant());
+        }
+        user.setLastEvaluatedDate(today);
+        return replay;
+    }
+
+    // Ein Tick um lokale Mitternacht von {@code day}, in Stage-Reihenfolge
+    private void midnight(User user, Replay replay, LocalDate day, Instant at) {
+        if (user.getHealth() <= 0) {
+            user.coinPenalty();
+        }
+        if (user.isStreakBroken()) {
+            user.setStreakBroken(false);
+        }
+
+        List<Task> overdue = replay.alive.stream()
+                .filter(task -> task.getDeadline() != null && task.getDeadline().isBefore(day))
+                .toList();
+        if (overdue.isEmpty()) return;
+
+        boolean hasCompletedAny = false;
+        for (Task task : overdue) {
+            if (task.isCompleted()) {
+                hasCompletedAny = true;
+                // wie DeadlineStage: nach der Entscheidung beginnt eine neue Periode
+                if (task.periodOverOn(day)) {
+                    task.resetPeriod();
+                    if (!replay.reset.contains(task.getId())) replay.reset.add(task.getId());
+                }
+            } else if (task.getFrequency() == Frequency.NONE) {
+                replay.alive.remove(task);
+                replay.deleted.add(task);
+            } else {
+                task.resetPeriod();
+                if (!replay.reset.contains(task.getId())) replay.reset.add(task.getId());
+            }
+        }
+
+        if (user.getStreakFreezeUntil() != null && at.isAfter(user.getStreakFreezeUntil())) {
+            user.setStreakFreezeActive(false);
+            user.setStreakFreezeUntil(null);
+        }
+        if (!hasCompletedAny && !user.isStreakFreezeActive()) {
+            user.setStreakBroken(true);
+            user.setStreak(0);
+            user.healthpenalty();
+            user.coinPenalty();
+        }
+    }
+
+    private void persistTasks(Replay replay) {
+        if (!replay.reset.isEmpty()) {
+            mongoTemplate.updateMulti(Query.query(where("_id").in(replay.reset)), TaskUpdates.resetPeriod(), Task.class);
+        }
+        for (Task task : replay.deleted) {
+            if (task.getSpaceId() != null) {
+                mongoTemplate.updateFirst(Query.query(where("_id").is(task.getSpaceId())),
+                        new Update().pull("taskIds", task.getId()), Space.class);
+            }
+        }
+        if (!replay.deleted.isEmpty()) {
+            mongoTemplate.remove(Query.query(where("_id").in(replay.deleted.stream().map(Task::getId).toList())), Task.class);
+        }
+    }
+
+    private ZoneId zoneOf(User user) {
+        if (user.getZoneId() != null) return ZoneId.of(user.getZoneId());
+        return defaultZone.isBlank() ? ZoneId.systemDefault() : ZoneId.of(defaultZone);
+    }
+
+    static final class Replay {
+        final List<Task> alive;
+        final List<String> reset = new ArrayList<>();
+        final List<Task> deleted = new ArrayList<>();
+
+        Replay(List<Task> alive) {
+            this.alive = alive;
+        }
+    }
+}
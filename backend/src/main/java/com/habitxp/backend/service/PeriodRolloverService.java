@@ -0,0 +1,68 @@
+package com.habitxp.backend.service;
+
+import com.habitxp.backend.model.Frequency;
+import com.habitxp.backend.model.PeriodCalendar;
+import com.habitxp.backend.model.Task;
+import com.habitxp.backend.scheduler.JobResult;
+import com.habitxp.backend.scheduler.JobRunner;
+import com.habitxp.backend.scheduler.TaskUpdates;
+import com.mongodb.client.result.UpdateResult;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Setzt nach einem Periodenwechsel isCompleted gesammelt zurück, statt dass jeder Lesezugriff
+ * seine Tasks einzeln speichert. Pro Frequenz ein updateMany über den partiellen Index completed_period.
+ */
+@Service
+@RequiredArgsConstructor
+public class PeriodRolloverService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PeriodRolloverService.class);
+    private static final List<Frequency> ROLLING = List.of(Frequency.DAILY, Frequency.WEEKLY, Frequency.MONTHLY);
+
+    private final MongoTemplate mongoTemplate;
+    private final JobRunner jobRunner;
+
+    @Scheduled(cron = "${scheduler.rollover.cron:0 5 0 * * *}")
+    public void runRollover() {
+        jobRunner.trigger("period-rollover", this::rollover);
+    }
+
+    public JobResult rollover() {
+        // Tasks rechnen ihre Perioden in der Zone des Servers
+        LocalDate today = PeriodCalendar.localDate(Instant.now(), ZoneId.systemDefault());
+        long matched = 0;
+        long modified = 0;
+        for (Frequency frequency : ROLLING) {
+            UpdateResult result = mongoTemplate.updateMulti(Query.query(rolledOver(frequency, today)),
+                    new Update().set("isCompleted", false), Task.class);
+            matched += result.getMatchedCount();
+            modified += result.getModifiedCount();
+        }
+        logger.info("Periodenwechsel: {} Tasks zurückgesetzt", modified);
+        return new JobResult(matched, modified);
+    }
+
+    static Criteria rolledOver(Frequency frequency, LocalDate today) {
+        return new Criteria().andOperator(
+                where("isCompleted").is(true),
+                TaskUpdates.periodOver(frequency, today),
+                // Überfällige Tasks wertet erst die Deadline-Auswertung aus; sie braucht isCompleted noch und setzt es danach zurück
+                new Criteria().orOperator(where("Deadline").is(null), where("Deadline").gte(today)));
+    }
+}
@@ -1,122 +1,407 @@
 package com.habitxp.backend.service;
 
-import com.habitxp.backend.model.Frequency;
 import com.habitxp.backend.model.Space;
 import com.habitxp.backend.model.Task;
 import com.habitxp.backend.model.User;
-import com.habitxp.backend.repository.SpaceRepository;
 import com.habitxp.backend.repository.TaskRepository;
 import com.habitxp.backend.repository.UserRepository;
+import com.habitxp.backend.scheduler.BulkWriter;
+import com.habitxp.backend.scheduler.DeadlineAggregation;
+import com.habitxp.backend.scheduler.DeadlineStage;
+import com.habitxp.backend.scheduler.JobResult;
+import com.habitxp.backend.scheduler.JobRunner;
+import com.habitxp.backend.scheduler.KeyRange;
+import com.habitxp.backend.scheduler.Lease;
+import com.habitxp.backend.scheduler.LeaseService;
+import com.habitxp.backend.scheduler.MaintenanceRun;
+import com.habitxp.backend.scheduler.MaintenanceRunStore;
+import com.habitxp.backend.scheduler.MaintenanceStage;
+import com.habitxp.backend.scheduler.MaintenanceTick;
+import com.habitxp.backend.scheduler.MongoThrottle;
+import com.habitxp.backend.scheduler.PartitionProgress;
+import com.habitxp.backend.scheduler.ServerSideUpdate;
+import com.habitxp.backend.scheduler.SweepExecutor;
+import com.habitxp.backend.scheduler.UserMaintenance;
+import com.mongodb.client.result.UpdateResult;
 import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDate;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Stündlicher Wartungslauf. Alle Regeln (Deadlines, Ablauf von Boni, HP-Strafe, Streak-Reset)
+ * sind {@link MaintenanceStage}s; jeder betroffene User wird pro Tick genau einmal besucht
+ * und bekommt genau ein kombiniertes Update.
+ * <p>
+ * Der User-Keyspace wird pro Tick in Partitionen geteilt. Jede Partition wird über einen Lease
+ * genau einer Backend-Instanz zugeteilt; mehrere Replikas teilen sich so die Arbeit.
+ * Innerhalb einer Instanz laufen die Partitionen parallel auf dem {@link SweepExecutor}.
+ * Nach jeder Seite wird ein Checkpoint geschrieben; abgebrochene Läufe werden beim nächsten
+ * Tick bzw. nach einem Neustart ab dem Checkpoint fortgesetzt.
+ */
 @Service
 @RequiredArgsConstructor
 public class SchedulerService {
 
-    private final SpaceRepository spaceRepository;
+    private static final Logger logger = LoggerFactory.getLogger(SchedulerService.class);
+    private static final String MAINTENANCE_JOB = "maintenance";
+
     private final TaskRepository taskRepository;
     private final UserRepository userRepository;
-    private final UserService userService;
+    private final MongoTemplate mongoTemplate;
+    private final List<MaintenanceStage> stages;
+    private final LeaseService leaseService;
+    private final SweepExecutor sweepExecutor;
+    private final MaintenanceRunStore runStore;
+    private final TaskScheduler taskScheduler;
+    private final DeadlineAggregation deadlineAggregation;
+    private final JobRunner jobRunner;
+    private final LazyEvaluationService lazyEvaluation;
 
-    @Scheduled(cron = "0 0 * * * *") // jede Stunde
-    public void checkDeadlineTask() {
-        LocalDate today = LocalDate.now();
-        List<User> users = userRepository.findAll();
+    @Value("${scheduler.page-size:500}")
+    private int pageSize;
 
-        for (User user : users) {
+    @Value("${scheduler.bulk-size:500}")
+    private int bulkSize;
 
-            boolean hasCompletedAny = false;
+    // true: Stages mit serverseitiger Form laufen als updateMany direkt in Mongo statt User für User im JVM
+    @Value("${scheduler.server-side:true}")
+    private boolean serverSide;
 
-            List<String> spaceIds = user.getSpaceIds();
-            if (spaceIds == null || spaceIds.isEmpty()) continue;
+    // Anzahl Partitionen pro Lauf; sollte mindestens der Anzahl Replikas entsprechen
+    @Value("${scheduler.partitions:8}")
+    private int partitions;
 
-            List<Space> spaces = spaceRepository.findAllById(spaceIds);
+    // java: DeadlineStage pro User im JVM; aggregation: Entscheidung über Strafen per Aggregation in Mongo
+    @Value("${scheduler.deadline-engine:java}")
+    private String deadlineEngine;
 
-            for (Space space : spaces) {
-                List<String> taskIds = space.getTaskIds();
-                if (taskIds == null || taskIds.isEmpty()) continue;
+    // Zone für User ohne eigene Zeitzone; leer heißt Zone des Servers
+    @Value("${scheduler.default-zone:}")
+    private String defaultZone;
 
-                List<Task> tasks = taskRepository.findAllById(taskIds);
+    @Value("${scheduler.lease.ttl-ms:60000}")
+    private long leaseTtlMs;
 
-                for (Task task : tasks) {
-                    if (task.getDeadline() != null && task.getDeadline().isBefore(today)) {
+    // Wie weit zurück abgebrochene Läufe noch fortgesetzt werden
+    @Value("${scheduler.resume-window-hours:24}")
+    private int resumeWindowHours;
 
-                        if (task.isCompleted()) {
-                            hasCompletedAny = true;
-                        } else {
-                            if (task.getFrequency() == Frequency.NONE) {
-                                space.getTaskIds().remove(task.getId());
-                                spaceRepository.save(space);
-                                taskRepository.delete(task);
-                            } else {
-                                task.setCompletions(new ArrayList<>());
-                                task.setCompleted(false);
-                                taskRepository.save(task);
-                            }
-                        }
-                    }
-                }
+    // Stößt den Lauf nur an; er läuft auf dem eigenen Thread des Jobs "maintenance"
+    @Scheduled(cron = "${scheduler.maintenance.cron:0 0 * * * *}") // jede Stunde die User, bei denen gerade lokal Mitternacht war
+    public void runMaintenance() {
+        jobRunner.trigger(MAINTENANCE_JOB, () -> {
+            JobResult result = resumeUnfinished();
+            for (MaintenanceTick bucket : MaintenanceTick.buckets(Instant.now(), defaultZone())) {
+                result = result.plus(runMaintenance(bucket));
             }
+            return result;
+        });
+    }
+
+    private ZoneId defaultZone() {
+        return defaultZone.isBlank() ? ZoneId.systemDefault() : ZoneId.of(defaultZone);
+    }
 
-            if (!hasCompletedAny && !user.isStreakFreezeActive()) {
-                user.setStreakBroken(true);
-                user.setStreak(0);
-                user.healthpenalty();
-                user.coinPenalty();
+    // Nach einem Neustart offene Läufe fortsetzen, sobald die Leases der alten Instanz abgelaufen sind
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleResume() {
+        taskScheduler.schedule(() -> jobRunner.trigger(MAINTENANCE_JOB, () -> {
+            try {
+                return resumeUnfinished();
+            } catch (DataAccessException e) {
+                logger.warn("Offene Wartungsläufe konnten nicht fortgesetzt werden: {}", e.getMessage());
+                return JobResult.EMPTY;
             }
+        }), Instant.now().plusMillis(leaseTtlMs));
+    }
+
+    public JobResult resumeUnfinished() {
+        Instant since = Instant.now().minus(Duration.ofHours(resumeWindowHours));
+        JobResult result = JobResult.EMPTY;
+        for (MaintenanceRun run : runStore.unfinishedSince(since)) {
+            logger.info("Setze Wartungslauf {} fort", run.getId());
+            result = result.plus(execute(run));
         }
+        return result;
+    }
 
-        userRepository.saveAll(users);
+    public JobResult runMaintenance(MaintenanceTick tick) {
+        // Im Lazy-Modus bleibt für den Lauf womöglich nichts zu tun
+        if (stages.stream().allMatch(this::skipped)) return JobResult.EMPTY;
+        return execute(runStore.plan(tick, partitions));
     }
 
+    private boolean skipped(MaintenanceStage stage) {
+        return lazyEvaluation.isLazy() && stage.evaluatedOnAccess();
+    }
 
+    private JobResult execute(MaintenanceRun run) {
+        List<KeyRange> ranges = run.ranges();
 
-    @Scheduled(cron = "0 0 0 * * *") // täglich um Mitternacht
-    public void checkUsersForHpPenalty() {
-        List<User> users = userRepository.findAll();
-        for (User user : users) {
-            if (user.getHealth() <= 0) {
-                user.coinPenalty();
-                userRepository.save(user);
-            }
+        // Jede Instanz beginnt bei einer anderen Partition, damit sie sich nicht um dieselbe streiten
+        int start = leaseService.nodeIndex();
+        AtomicReference<JobResult> total = new AtomicReference<>(JobResult.EMPTY);
+        List<Runnable> work = new ArrayList<>(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            int partition = (start + i) % ranges.size();
+            work.add(() -> total.accumulateAndGet(claimPartition(run, partition, ranges.get(partition)), JobResult::plus));
         }
+        sweepExecutor.runAll(work);
+        return total.get();
     }
 
-    @Scheduled(cron = "0 0 0 * * *") // täglich um Mitternacht
-    public void restartStreak() {
-        List<User> users = userRepository.findAll();
-        for (User user : users) {
-            if (user.isStreakBroken()) {
-                user.setStreakBroken(false);
-                userRepository.save(user);
+    private JobResult claimPartition(MaintenanceRun run, int partition, KeyRange range) {
+        Optional<Lease> lease = leaseService.tryAcquire(run.getId() + "/" + partition);
+        if (lease.isEmpty()) return JobResult.EMPTY;
+
+        try {
+            // Checkpoint aus dem frischen Lauf-Dokument, nicht aus dem beim Planen gelesenen Stand
+            PartitionProgress progress = runStore.findById(run.getId())
+                    .map(current -> progressOf(current, partition))
+                    .orElseGet(() -> progressOf(run, partition));
+            runStore.partitionStarted(run.getId(), partition, lease.get().owner());
+            JobResult result = runPartition(run, partition, range, progress, lease.get());
+            runStore.partitionFinished(run.getId(), partition);
+            leaseService.complete(lease.get());
+            return result;
+        } catch (RuntimeException e) {
+            // Lease freigeben, damit eine andere Instanz die Partition noch in diesem Lauf übernimmt
+            logger.error("Partition {} von {} fehlgeschlagen: {}", partition, run.getId(), e.getMessage());
+            leaseService.release(lease.get());
+            return JobResult.EMPTY;
+        }
+    }
+
+    private JobResult runPartition(MaintenanceRun run, int partition, KeyRange range, PartitionProgress progress, Lease lease) {
+        MaintenanceTick tick = run.tick();
+        JobResult result = JobResult.EMPTY;
+        List<MaintenanceStage> jvmStages = new ArrayList<>();
+        boolean aggregateDeadlines = false;
+        for (MaintenanceStage stage : stages) {
+            if (stage.midnightOnly() && !tick.midnight()) continue;
+            if (skipped(stage)) continue;
+
+            Optional<ServerSideUpdate> server = serverSide ? stage.serverSide(tick) : Optional.empty();
+            if (stage instanceof DeadlineStage && "aggregation".equals(deadlineEngine)) {
+                aggregateDeadlines = true;
+            } else if (server.isEmpty()) {
+                jvmStages.add(stage);
+            } else if (!progress.getCompletedStages().contains(stage.name())) {
+                // Die Markierung im Filter macht das updateMany wiederholbar, falls der Checkpoint danach nicht mehr geschrieben wird
+                JobResult updated = updateManyUsers(stage.name(), server.get().onceIn(stage.name(), run.getId()), tick, range, lease);
+                runStore.stageCompleted(run.getId(), partition, stage.name(), updated.written());
+                result = result.plus(updated);
             }
         }
+
+        if (!jvmStages.isEmpty()) {
+            result = result.plus(sweepJvm(run, partition, range, progress, lease, jvmStages));
+        }
+        // Nach dem JVM-Pass, damit ein Streak-Reset dort die neue Strafe nicht wieder aufhebt
+        if (aggregateDeadlines && !progress.getCompletedStages().contains(DeadlineAggregation.STAGE)) {
+            DeadlineAggregation.Result outcome = deadlineAggregation.run(tick, range, run.getId(), Math.max(1, pageSize),
+                    sweepExecutor.getThrottle(), () -> leaseService.isValid(lease));
+            logger.info("Deadline-Aggregation {} {}: {} User mit überfälligen Tasks, {} bestraft, {} Tasks zurückgesetzt, {} gelöscht",
+                    run.getId(), range, outcome.users(), outcome.penalized(), outcome.reset(), outcome.deleted());
+            runStore.stageCompleted(run.getId(), partition, DeadlineAggregation.STAGE, outcome.penalized());
+            result = result.plus(new JobResult(outcome.users(), outcome.penalized() + outcome.reset() + outcome.deleted()));
+        }
+        return result;
     }
 
-    @Scheduled(cron = "0 0 * * * *") // jede Stunde
-    public void checkUsersForStreakFreeze() {
-        List<User> users = userRepository.findAll();
-        for (User user : users) {
-            if(user.streakFreezeReset()){
-                userRepository.save(user);
+    private JobResult sweepJvm(MaintenanceRun run, int partition, KeyRange range, PartitionProgress progress, Lease lease,
+                          List<MaintenanceStage> jvmStages) {
+        MaintenanceTick tick = run.tick();
+
+        boolean needsOverdueTasks = jvmStages.stream().anyMatch(MaintenanceStage::needsOverdueTasks);
+        // Brauchen alle verbleibenden Stages überfällige Tasks, reicht es, nur deren Besitzer zu besuchen.
+        // Bei einem Zonen-Bucket geht das nicht, weil Tasks die Zone ihres Users nicht kennen.
+        boolean overdueUsersOnly = tick.zones() == null
+                && jvmStages.stream().allMatch(MaintenanceStage::needsOverdueTasks);
+        KeyRange remaining = range.resumeAfter(progress.getLastUserId());
+        AtomicLong scanned = new AtomicLong();
+
+        try (BulkWriter users = writer(User.class, lease);
+             BulkWriter tasks = writer(Task.class, lease);
+             BulkWriter spaces = writer(Space.class, lease)) {
+
+            Consumer<Page> processPage = page -> {
+                page.visits().forEach(visit -> {
+                    UserMaintenance work = new UserMaintenance(visit.user(), visit.overdueTasks(), tick, tasks, spaces);
+                    jvmStages.forEach(stage -> stage.apply(work));
+                    if (work.isChanged()) {
+                        // Wurde der User in diesem Lauf schon geschrieben (Abbruch vor dem Checkpoint), greift der Filter nicht
+                        work.set("lastMaintenanceRun", run.getId());
+                        users.updateOne(notYetIn(run, visit.user().getId()), work.getUpdate());
+                    }
+                });
+                checkpoint(run.getId(), partition, page, users, tasks, spaces);
+                scanned.addAndGet(page.visits().size());
+            };
+
+            if (overdueUsersOnly) {
+                sweepOverdueUsers(tick, remaining, processPage);
+            } else {
+                sweepAllUsers(tick, remaining, needsOverdueTasks, processPage);
             }
+            logger.info("Wartungslauf {} {}: {} User geändert, {} Tasks zurückgesetzt, {} Tasks gelöscht",
+                    run.getId(), range, users.getModified(), tasks.getModified(), tasks.getDeleted());
+            return new JobResult(scanned.get(),
+                    users.getModified() + tasks.getModified() + tasks.getDeleted() + spaces.getModified());
+        }
+    }
+
+    // Seite komplett schreiben, erst danach den Fortschritt festhalten
+    private void checkpoint(String runId, int partition, Page page, BulkWriter users, BulkWriter tasks, BulkWriter spaces) {
+        long modifiedBefore = users.getModified();
+        long deletedBefore = tasks.getDeleted();
+
+        // User zuerst: Ihre Markierung schützt beim Fortsetzen vor einer zweiten Entscheidung über schon
+        // zurückgesetzte Tasks. Space-Referenzen vor dem Löschen der Tasks entfernen
+        users.flush();
+        spaces.flush();
+        tasks.flush();
+
+        runStore.checkpoint(runId, partition, page.lastUserId(), page.visits().size(),
+                users.getModified() - modifiedBefore, tasks.getDeleted() - deletedBefore);
+    }
+
+    private BulkWriter writer(Class<?> entityType, Lease lease) {
+        return new BulkWriter(mongoTemplate, entityType, bulkSize)
+                .fencedBy(() -> leaseService.isValid(lease))
+                .throttledBy(sweepExecutor.getThrottle());
+    }
+
+    private static PartitionProgress progressOf(MaintenanceRun run, int partition) {
+        return run.getPartitions().stream()
+                .filter(progress -> progress.getIndex() == partition)
+                .findFirst()
+                .orElseGet(() -> PartitionProgress.builder().index(partition).build());
+    }
+
+    // Nur überfällige Tasks lesen; sie kommen nach userId sortiert, also liegen die Tasks eines Users am Stück
+    private void sweepOverdueUsers(MaintenanceTick tick, KeyRange range, Consumer<Page> processPage) {
+        int batchSize = Math.max(1, pageSize);
+        Map<String, List<Task>> overdueByUser = new LinkedHashMap<>();
+
+        Query query = Query.query(where("Deadline").lt(tick.today()).andOperator(range.userIds()))
+                .with(Sort.by("userId"))
+                .cursorBatchSize(batchSize);
+
+        try (Stream<Task> overdue = mongoTemplate.stream(query, Task.class)) {
+            overdue.forEach(task -> {
+                if (!overdueByUser.containsKey(task.getUserId()) && overdueByUser.size() >= batchSize) {
+                    processPage.accept(loadUsers(overdueByUser));
+                    overdueByUser.clear();
+                }
+                overdueByUser.computeIfAbsent(task.getUserId(), id -> new ArrayList<>()).add(task);
+            });
+        }
+
+        if (!overdueByUser.isEmpty()) {
+            processPage.accept(loadUsers(overdueByUser));
+        }
+    }
+
+    // Alle User per Cursor, seitenweise mit einer Task-Abfrage pro Seite
+    private void sweepAllUsers(MaintenanceTick tick, KeyRange range, boolean needsOverdueTasks, Consumer<Page> processPage) {
+        int batchSize = Math.max(1, pageSize);
+        List<User> page = new ArrayList<>(batchSize);
+        Query query = Query.query(inBucket(tick, range.ids())).with(Sort.by("_id")).cursorBatchSize(batchSize);
+
+        try (Stream<User> users = mongoTemplate.stream(query, User.class)) {
+            users.forEach(user -> {
+                page.add(user);
+                if (page.size() >= batchSize) {
+                    processPage.accept(withOverdueTasks(page, tick, needsOverdueTasks));
+                    page.clear();
+                }
+            });
+        }
+
+        if (!page.isEmpty()) {
+            processPage.accept(withOverdueTasks(page, tick, needsOverdueTasks));
         }
     }
 
-    @Scheduled(cron = "0 0 * * * *") // jede Stunde
-    public void checkUsersForXPFactor() {
-        List<User> users = userRepository.findAll();
+    private Page loadUsers(Map<String, List<Task>> overdueByUser) {
+        List<Visit> visits = new ArrayList<>(overdueByUser.size());
+        MongoThrottle throttle = sweepExecutor.getThrottle();
+        for (User user : throttle.call(() -> userRepository.findAllById(overdueByUser.keySet()))) {
+            visits.add(new Visit(user, overdueByUser.get(user.getId())));
+        }
+        // Die Map ist nach userId sortiert befüllt, der letzte Key ist also der größte
+        String lastUserId = null;
+        for (String userId : overdueByUser.keySet()) lastUserId = userId;
+        return new Page(visits, lastUserId);
+    }
+
+    private Page withOverdueTasks(List<User> users, MaintenanceTick tick, boolean needsOverdueTasks) {
+        List<String> ids = users.stream().map(User::getId).toList();
+        Map<String, List<Task>> overdueByUser = needsOverdueTasks
+                ? sweepExecutor.getThrottle().call(() -> taskRepository.findOverdueTasks(tick.today(), ids)).stream()
+                        .collect(Collectors.groupingBy(Task::getUserId))
+                : Map.of();
+
+        List<Visit> visits = new ArrayList<>(users.size());
         for (User user : users) {
-            if(user.xpFactorReset()){
-                userRepository.save(user);
-            }
+            visits.add(new Visit(user, overdueByUser.getOrDefault(user.getId(), List.of())));
+        }
+        return new Page(visits, ids.get(ids.size() - 1));
+    }
+
+    // Ein einziges updateMany pro Partition, kein Dokument wandert in die JVM
+    private JobResult updateManyUsers(String stage, ServerSideUpdate server, MaintenanceTick tick, KeyRange range, Lease lease) {
+        if (!leaseService.isValid(lease)) {
+            throw new IllegalStateException("Scheduler-Lease verloren vor " + stage);
         }
+        Query query = Query.query(inBucket(tick, server.filter(), range.ids()));
+        UpdateResult result = sweepExecutor.getThrottle().call(() -> mongoTemplate.updateMulti(query, server.update(), User.class));
+        logger.info("{} {}: {} User gematcht, {} geändert", stage, range, result.getMatchedCount(), result.getModifiedCount());
+        return new JobResult(result.getMatchedCount(), result.getModifiedCount());
+    }
+
+    private static Criteria inBucket(MaintenanceTick tick, Criteria... criteria) {
+        List<Criteria> all = new ArrayList<>(List.of(criteria));
+        tick.userFilter().ifPresent(all::add);
+        return all.size() == 1 ? all.get(0) : new Criteria().andOperator(all);
+    }
+
+    private static Query notYetIn(MaintenanceRun run, String userId) {
+        return Query.query(where("_id").is(userId).and("lastMaintenanceRun").ne(run.getId()));
+    }
+
+    private record Visit(User user, List<Task> overdueTasks) {
+    }
+
+    private record Page(List<Visit> visits, String lastUserId) {
     }
 
 }
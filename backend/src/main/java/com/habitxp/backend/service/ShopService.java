@@ -16,6 +16,8 @@ public class ShopService {
 
     private final BonusRepository bonusRepository;
     private final UserRepository userRepository;
+    private final EffectExpiryService effectExpiryService;
+    private final ConflictRetry conflictRetry;
 
     // Gibt alle verfügbaren Boni zurück
     public List<Bonus> listBonuses() {
@@ -24,17 +26,23 @@ public class ShopService {
 
     // Verkauft einen Bonus an einen User (wenn leistbar)
     public BonusBuyResponse sellBonus(String userId, String bonusId) {
-        User user = userRepository.findById(userId).orElse(null);
         Bonus bonus = bonusRepository.findById(bonusId).orElse(null);
-
-
-        if (user == null || bonus == null) return new BonusBuyResponse(false,true);;
-        if (!bonus.isAffordable(user.getCoins())) return new BonusBuyResponse(false,true);;
-
-        user.setCoins(user.getCoins() - bonus.getCost());
-        BonusBuyResponse bbr=bonus.applyTo(user);
-
-        userRepository.save(user);
-        return bbr;
+        if (bonus == null) return new BonusBuyResponse(false, true);
+
+        // Coins nur auf dem Stand abbuchen, der gelesen wurde; bei parallelem Schreiben neu lesen und neu prüfen
+        return conflictRetry.run("shop-buy", () -> {
+            User user = userRepository.findById(userId).orElse(null);
+            if (user == null) return new BonusBuyResponse(false, true);
+            if (!bonus.isAffordable(user.getCoins())) return new BonusBuyResponse(false, true);
+
+            user.setCoins(user.getCoins() - bonus.getCost());
+            BonusBuyResponse bbr = bonus.applyTo(user);
+
+            userRepository.save(user);
+            if (bbr.isSuccess()) {
+                effectExpiryService.effectScheduled(user);
+            }
+            return bbr;
+        });
     }
 }
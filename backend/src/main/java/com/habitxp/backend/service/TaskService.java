@@ -1,10 +1,14 @@
 package com.habitxp.backend.service;
 
+import com.habitxp.backend.dto.BatchCompletionResponse;
 import com.habitxp.backend.dto.CompletionResponse;
 import com.habitxp.backend.dto.StatusResponse;
-import com.habitxp.backend.model.Frequency;
-import com.habitxp.backend.model.FrequencyOrder;
+import com.habitxp.backend.dto.SyncRequest;
+import com.habitxp.backend.dto.SyncResponse;
+import com.habitxp.backend.dto.UserProfileResponse;
+import com.habitxp.backend.model.Completion;
 import com.habitxp.backend.model.Task;
+import com.habitxp.backend.model.TaskCompletion;
 import com.habitxp.backend.model.User;
 import com.habitxp.backend.repository.SpaceRepository;
 import com.habitxp.backend.repository.TaskRepository;
@@ -14,29 +18,44 @@ import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.time.LocalDate;
-import java.time.temporal.WeekFields;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 @RequiredArgsConstructor
 public class TaskService {
 
+    // Obergrenze für complete-batch; eine Morgenroutine hat selten mehr als zehn Gewohnheiten
+    static final int MAX_BATCH_SIZE = 50;
+
+    // Obergrenze für einen Offline-Sync; reicht für Wochen ohne Netz
+    static final int MAX_SYNC_SIZE = 500;
+
+    // Gerätezeit darf so weit vorgehen; spätere Zeitpunkte werden abgelehnt, frühere auf jetzt begrenzt
+    static final Duration MAX_CLOCK_SKEW = Duration.ofMinutes(5);
+
     private final SpaceRepository spaceRepository;
     private final SpaceService spaceService;
 
     private final TaskRepository taskRepository;
     private final UserRepository userRepository;
     private final AIAgentService aiagent;
+    private final LazyEvaluationService lazyEvaluation;
+    private final CompletionHistoryService completionHistory;
+    private final CompletionEngine completionEngine;
+    private final ConflictRetry conflictRetry;
 
+    // Der Status wird beim Lesen nur abgeleitet; den Periodenwechsel schreibt PeriodRolloverService gesammelt
     public List<Task> getTasksByUser(String userId) {
         List<Task> tasks = taskRepository.findByUserId(userId);
-        tasks.forEach(task -> {
-            task.updateCompletionStatus();
-            taskRepository.save(task);
-        });
+        tasks.forEach(Task::updateCompletionStatus);
         return tasks;
     }
 
@@ -45,11 +64,11 @@ public class TaskService {
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Task not found"));
 
         task.updateCompletionStatus();
-        taskRepository.save(task);
         return task;
     }
 
     public Task createTask(Task task) {
+        parseDuration(task);
         task.setRewardXP(aiagent.calculateXP(task));
         task.setRewardCoins(aiagent.calculateCoins(task));
 
@@ -60,6 +79,7 @@ public class TaskService {
         }
 
         Task savedTask = taskRepository.save(task);
+        refreshStreakFrequency(user.getId());
 
         if (task.getSpaceId() != null) {
             spaceRepository.findById(task.getSpaceId()).ifPresent(space -> {
@@ -71,15 +91,22 @@ public class TaskService {
     }
 
     public Task updateTask(Task updatedTask) {
-        Task existing = getTaskById(updatedTask.getId());
-
-        existing.setTitle(updatedTask.getTitle());
-        existing.setDuration(updatedTask.getDuration());
-        existing.setFrequency(updatedTask.getFrequency());
-        existing.setTimes(updatedTask.getTimes());
-        existing.setSpaceId(updatedTask.getSpaceId());
-
-        return taskRepository.save(existing);
+        parseDuration(updatedTask);
+        // Eine gleichzeitige Erledigung erhöht die Version; dann mit frischem Stand erneut anwenden
+        Task saved = conflictRetry.run("task-update", () -> {
+            Task existing = getTaskById(updatedTask.getId());
+
+            existing.setTitle(updatedTask.getTitle());
+            existing.setDuration(updatedTask.getDuration());
+            existing.setParsedDuration(updatedTask.getParsedDuration());
+            existing.setFrequency(updatedTask.getFrequency());
+            existing.setTimes(updatedTask.getTimes());
+            existing.setSpaceId(updatedTask.getSpaceId());
+
+            return taskRepository.save(existing);
+        });
+        refreshStreakFrequency(saved.getUserId());
+        return saved;
     }
 
 
@@ -95,112 +122,193 @@ public class TaskService {
         }
 
         taskRepository.deleteById(taskId);
+        completionHistory.deleteHistory(taskId);
+        refreshStreakFrequency(task.getUserId());
     }
 
     public CompletionResponse completeTask(String taskId, String userId) {
-        Task task = getTaskById(taskId);
-        User user = getUserById(userId);
-
-        //levelup überprüfen
-        boolean success = task.markAsCompleted(user);
-        taskRepository.save(task);
-
-        boolean completed = task.isPeriodCompleted();
-        int level = user.getLevel();
-        boolean levelup = false;
-
-        if (success && completed) {
-            applyRewardsToUser(user, task);
+        if (lazyEvaluation.isLazy()) {
+            // Verpasste Mitternächte zuerst nachspielen; das kann auch diesen Task zurücksetzen
+            lazyEvaluation.evaluate(getUserById(userId));
+        }
 
-            user = getUserById(userId);
-            if (user.getLevel() > level) {
-                levelup = true;
-            }
+        // Bis zu drei Round-Trips: Task, User bei erfüllter Periode, Historie. Die Historie ist nicht atomar mit
+        // dem Task; fehlt dort ein Eintrag nach einem Abbruch, trägt die nächste Erledigung ihn nach
+        CompletionEngine.Outcome outcome = completionEngine.complete(taskId, userId);
+        Task task = outcome.task();
+        if (outcome.success()) {
+            completionHistory.recordAll(periodHistory(task));
+        } else {
+            repairHistory(task);
         }
 
         return new CompletionResponse(
-                success,
-                completed,
-                levelup,
+                outcome.success(),
+                task.isPeriodCompleted(),
+                outcome.levelup(),
                 task.remainingCompletions(),
                 task.getRewardXP(),
-                task.getRewardCoins()
+                task.getRewardCoins(),
+                outcome.user() != null ? UserProfileResponse.of(outcome.user(), null) : null
         );
     }
 
-    public StatusResponse getTaskStatus(String taskId) {
-        Task task = getTaskById(taskId);
-        task.updateCompletionStatus();
+    public BatchCompletionResponse completeTasks(List<String> taskIds, String userId) {
+        if (taskIds == null || taskIds.isEmpty() || taskIds.size() > MAX_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Between 1 and " + MAX_BATCH_SIZE + " task ids required");
+        }
+        if (lazyEvaluation.isLazy()) {
+            lazyEvaluation.evaluate(getUserById(userId));
+        }
 
-        return new StatusResponse(
-                task.isCompleted(),
-                task.remainingCompletions()
-        );
-    }
+        CompletionEngine.BatchOutcome batch = completionEngine.completeAll(taskIds, userId);
+
+        List<BatchCompletionResponse.Entry> results = new ArrayList<>(taskIds.size());
+        List<TaskCompletion> history = new ArrayList<>();
+        int rewardXP = 0;
+        int rewardCoins = 0;
+        for (int i = 0; i < taskIds.size(); i++) {
+            CompletionEngine.Outcome outcome = batch.outcomes().get(i);
+            if (outcome == null) {
+                results.add(new BatchCompletionResponse.Entry(taskIds.get(i), null, "Task not found"));
+                continue;
+            }
+            Task task = outcome.task();
+            boolean completed = task.isPeriodCompleted();
+            if (outcome.success()) {
+                history.addAll(periodHistory(task));
+                if (completed) {
+                    rewardXP += task.getRewardXP();
+                    rewardCoins += task.getRewardCoins();
+                }
+            }
+            results.add(new BatchCompletionResponse.Entry(task.getId(), new CompletionResponse(
+                    outcome.success(),
+                    completed,
+                    outcome.levelup(),
+                    task.remainingCompletions(),
+                    task.getRewardXP(),
+                    task.getRewardCoins(),
+                    null), null));
+        }
+        completionHistory.recordAll(history);
 
-    private User getUserById(String userId) {
-        return userRepository.findById(userId)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+        return new BatchCompletionResponse(results, batch.levelup(), rewardXP, rewardCoins,
+                batch.user() != null ? UserProfileResponse.of(batch.user(), null) : null);
     }
 
-    public void applyRewardsToUser(User user, Task task) {
-        user.addXP(task.getRewardXP());
-        user.setCoins(user.getCoins() + task.getRewardCoins());
+    /**
+     * Übernimmt offline erfasste Erledigungen. Einträge werden auf Millisekunden gekürzt, nach Zeitpunkt
+     * und Task-Id sortiert und über die Id der Historie (Task + Zeitpunkt) entdoppelt; ein erneut
+     * gesendeter Sync ändert deshalb nichts. Die Regeln prüft {@link CompletionEngine#sync}.
+     */
+    public SyncResponse syncCompletions(List<SyncRequest.Entry> completions, String userId) {
+        if (completions == null || completions.isEmpty() || completions.size() > MAX_SYNC_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Between 1 and " + MAX_SYNC_SIZE + " completions required");
+        }
 
-        List<Task> userTasks = taskRepository.findByUserId(user.getId());
-        Frequency lowestFrequency = determineLowestFrequency(userTasks);
+        LocalDateTime now = LocalDateTime.now();
+        List<SyncResponse.Rejection> rejected = new ArrayList<>();
+        Map<CompletionEngine.SyncEntry, SyncRequest.Entry> entries = new HashMap<>();
+        for (SyncRequest.Entry entry : completions) {
+            if (entry == null || entry.getTaskId() == null || entry.getCompletedAt() == null) {
+                rejected.add(new SyncResponse.Rejection(entry != null ? entry.getTaskId() : null,
+                        entry != null ? entry.getCompletedAt() : null, "Invalid entry"));
+            } else if (entry.getCompletedAt().isAfter(now.plus(MAX_CLOCK_SKEW))) {
+                rejected.add(new SyncResponse.Rejection(entry.getTaskId(), entry.getCompletedAt(), "Timestamp in the future"));
+            } else {
+                LocalDateTime at = (entry.getCompletedAt().isAfter(now) ? now : entry.getCompletedAt()).truncatedTo(ChronoUnit.MILLIS);
+                entries.putIfAbsent(new CompletionEngine.SyncEntry(entry.getTaskId(), at), entry);
+            }
+        }
+        int duplicates = completions.size() - rejected.size() - entries.size();
+
+        Set<String> recorded = completionHistory.recorded(entries.keySet().stream()
+                .map(entry -> historyId(entry.taskId(), entry.at()))
+                .toList());
+        List<CompletionEngine.SyncEntry> ordered = entries.keySet().stream()
+                .filter(entry -> !recorded.contains(historyId(entry.taskId(), entry.at())))
+                .sorted(Comparator.comparing(CompletionEngine.SyncEntry::at).thenComparing(CompletionEngine.SyncEntry::taskId))
+                .toList();
+        duplicates += entries.size() - ordered.size();
+        if (ordered.isEmpty()) {
+            return new SyncResponse(0, duplicates, rejected, List.of(), false, 0, 0, null);
+        }
 
-        if (!hasAlreadyCountedStreak(user, lowestFrequency, userTasks)) {
-            user.setStreak(user.getStreak() + 1);
-            user.setLastStreakUpdate(LocalDate.now());
+        if (lazyEvaluation.isLazy()) {
+            lazyEvaluation.evaluate(getUserById(userId));
         }
+        CompletionEngine.SyncOutcome outcome = completionEngine.sync(userId, ordered);
+        completionHistory.recordAll(outcome.accepted());
 
-        userRepository.save(user);
+        outcome.rejected().forEach(rejection -> {
+            SyncRequest.Entry entry = entries.get(rejection.entry());
+            rejected.add(new SyncResponse.Rejection(entry.getTaskId(), entry.getCompletedAt(), rejection.reason()));
+        });
+        List<SyncResponse.TaskDelta> tasks = outcome.changed().stream()
+                .map(task -> new SyncResponse.TaskDelta(task.getId(), task.isPeriodCompleted(),
+                        task.remainingCompletions(), task.getLastCompletedAt()))
+                .toList();
+        return new SyncResponse(outcome.accepted().size(), duplicates, rejected, tasks, outcome.levelup(),
+                outcome.rewardXP(), outcome.rewardCoins(),
+                outcome.user() != null ? UserProfileResponse.of(outcome.user(), null) : null);
     }
 
-    private Frequency determineLowestFrequency(List<Task> tasks) {
-        return tasks.stream()
-                .map(Task::getFrequency)
-                .filter(f -> {
-                    try {
-                        FrequencyOrder.valueOf(f.name());
-                        return true;
-                    } catch (IllegalArgumentException e) {
-                        return false;
-                    }
-                })
-                .min(Comparator.comparingInt(f -> FrequencyOrder.valueOf(f.name()).getOrder()))
-                .orElse(Frequency.DAILY);
+    public List<Completion> getCompletionHistory(String taskId, String userId, int limit) {
+        // Fremde Tasks wie fehlende behandeln, wie CompletionEngine#complete
+        Task task = taskRepository.findById(taskId)
+                .filter(found -> userId.equals(found.getUserId()))
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Task not found"));
+        return completionHistory.history(task.getId(), limit);
     }
 
-    private boolean hasAlreadyCountedStreak(User user, Frequency lowestFrequency, List<Task> tasks) {
-        LocalDate today = LocalDate.now();
-
-        switch (lowestFrequency) {
-            case DAILY:
-                return user.getLastStreakUpdate() != null && user.getLastStreakUpdate().isEqual(today);
-            case WEEKLY:
-                WeekFields weekFields = WeekFields.of(Locale.getDefault());
-                int currentWeek = today.get(weekFields.weekOfWeekBasedYear());
-                int currentYear = today.getYear();
-
-                if (user.getLastStreakUpdate() == null) return false;
+    public StatusResponse getTaskStatus(String taskId) {
+        Task task = getTaskById(taskId);
 
-                int lastWeek = user.getLastStreakUpdate().get(weekFields.weekOfWeekBasedYear());
-                int lastYear = user.getLastStreakUpdate().getYear();
+        return new StatusResponse(
+                task.isCompleted(),
+                task.remainingCompletions()
+        );
+    }
 
-                return lastWeek == currentWeek && lastYear == currentYear;
+    private static String historyId(String taskId, LocalDateTime at) {
+        return TaskCompletion.of(taskId, Completion.builder().timestamp(at).build()).getId();
+    }
 
-            case MONTHLY:
-                if (user.getLastStreakUpdate() == null) return false;
+    // Alle Erledigungen der laufenden Periode; schon vorhandene überspringt recordAll über die Id
+    private static List<TaskCompletion> periodHistory(Task task) {
+        return task.getCompletions().stream().map(completion -> TaskCompletion.of(task.getId(), completion)).toList();
+    }
 
-                return user.getLastStreakUpdate().getYear() == today.getYear()
-                        && user.getLastStreakUpdate().getMonth() == today.getMonth();
+    // Abgelehnte Wiederholung nach einem Abbruch: Die letzte Erledigung zählt schon, fehlt aber womöglich in der Historie
+    private void repairHistory(Task task) {
+        Completion latest = task.latestCompletion();
+        if (latest == null) {
+            return;
+        }
+        TaskCompletion entry = TaskCompletion.of(task.getId(), latest);
+        if (completionHistory.recorded(List.of(entry.getId())).isEmpty()) {
+            completionHistory.recordAll(List.of(entry));
+        }
+    }
 
-            default:
-                return false;
+    private void parseDuration(Task task) {
+        try {
+            task.parseDuration();
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid duration: " + task.getDuration());
         }
     }
 
+    // Der Streak richtet sich nach der kleinsten Frequenz; beim Erledigen werden dafür keine Tasks mehr geladen
+    private void refreshStreakFrequency(String userId) {
+        if (userId != null) {
+            completionEngine.refreshStreakFrequency(userId, taskRepository.findByUserId(userId));
+        }
+    }
 
+    private User getUserById(String userId) {
+        return userRepository.findById(userId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+    }
 }
@@ -18,10 +18,13 @@ public class UserService {
 
     private final UserRepository userRepository;
     private final TaskRepository taskRepository;
+    private final LazyEvaluationService lazyEvaluation;
+    private final ConflictRetry conflictRetry;
 
     public User getUserById(String id) {
-        return userRepository.findById(id)
+        User user = userRepository.findById(id)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+        return lazyEvaluation.evaluate(user);
     }
 
     public Optional<User> getUserFromSpace(Space space) {
@@ -34,7 +37,20 @@ public class UserService {
     }
 
     public User updateUser(User user) {
-        return userRepository.save(user);
+        if (!User.isSupportedZone(user.getZoneId())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown time zone");
+        }
+        // Nur Profilfelder des Clients übernehmen; XP, Coins, HP, Streak und Wartungsstände pflegt der Server.
+        // Fehlende Felder bleiben, wie sie sind. Frisch gelesen je Versuch, damit das save gegen die Version prüft
+        return conflictRetry.run("user-update", () -> {
+            User current = userRepository.findById(user.getId())
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+            if (user.getFirstName() != null) current.setFirstName(user.getFirstName());
+            if (user.getLastName() != null) current.setLastName(user.getLastName());
+            if (user.getUsername() != null) current.setUsername(user.getUsername());
+            if (user.getZoneId() != null) current.setZoneId(user.getZoneId());
+            return userRepository.save(current);
+        });
     }
 
     public void deleteUser(String id) {
@@ -46,37 +62,23 @@ public class UserService {
     }
 
     public void levelUp(String userId, String choice) {
-        User user = userRepository.findById(userId).orElseThrow(() -> new IllegalArgumentException("User not found"));
+        conflictRetry.run("level-up", () -> {
+            User user = userRepository.findById(userId).orElseThrow(() -> new IllegalArgumentException("User not found"));
 
-        switch (choice) {
-            case "HEALTH" -> user.setMaxHealth(user.getMaxHealth() + 2);
-            case "TASK_LIMIT" -> user.setTaskLimit(user.getTaskLimit() + 1);
-            default -> throw new IllegalArgumentException("Ungültige Auswahl: " + choice);
-        }
+            switch (choice) {
+                case "HEALTH" -> user.setMaxHealth(user.getMaxHealth() + 2);
+                case "TASK_LIMIT" -> user.setTaskLimit(user.getTaskLimit() + 1);
+                default -> throw new IllegalArgumentException("Ungültige Auswahl: " + choice);
+            }
 
-        user.setHealth(user.getMaxHealth()); // immer voll auffüllen nach Level-Up
-        userRepository.save(user);
+            user.setHealth(user.getMaxHealth()); // immer voll auffüllen nach Level-Up
+            userRepository.save(user);
+        });
     }
 
     public UserProfileResponse getUserProfile(String userId) {
         User user = getUserById(userId);
         long currentTasks = taskRepository.countByUserId(userId);
-        return new UserProfileResponse(
-                user.getId(),
-                user.getUsername(),
-                user.getLevel(),
-                user.getHealth(),
-                user.getMaxHealth(),
-                user.getCurrentXP(),
-                user.getXpGoal(),
-                user.getXpFactor(),
-                user.isXpBonusActive(),
-                user.getXpFactorUntil() != null ? user.getXpFactorUntil().toString() : null,
-                user.getCoins(),
-                user.getStreak(),
-                user.getTaskLimit(),
-                currentTasks,
-                user.getAvatars()
-        );
+        return UserProfileResponse.of(user, currentTasks);
     }
 }
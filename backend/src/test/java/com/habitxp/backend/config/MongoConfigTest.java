@@ -0,0 +1,45 @@
+package com.habitxp.backend.config;
+
+import com.habitxp.backend.model.Completion;
+import com.habitxp.backend.model.CompletionHistory;
+import com.habitxp.backend.model.TaskHistory;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MongoConfigTest {
+
+    private MappingMongoConverter converter() {
+        MongoCustomConversions conversions = new MongoConfig().mongoCustomConversions();
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        return converter;
+    }
+
+    @Test
+    void shouldStoreHistoryAsBinary() {
+        Completion completion = Completion.builder().timestamp(LocalDateTime.of(2025, 2, 1, 9, 0)).userId("u1").durationMinutes(15).build();
+        TaskHistory history = TaskHistory.builder().id("t1").count(1)
+                .completions(CompletionHistory.encode(List.of(completion))).build();
+        MappingMongoConverter converter = converter();
+
+        Document document = new Document();
+        converter.write(history, document);
+
+        assertThat(document.get("completions")).isInstanceOf(Binary.class);
+        TaskHistory read = converter.read(TaskHistory.class, document);
+        assertThat(read.getCompletions().completions()).containsExactly(completion);
+    }
+}
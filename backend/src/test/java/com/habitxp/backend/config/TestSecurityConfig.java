@@ -48,6 +48,7 @@ public class TestSecurityConfig {
                 .anonymous().disable() // Wichtig: Anonymous deaktiviert → Tests bekommen 401
                 .authorizeHttpRequests(auth -> auth
                         .requestMatchers("/auth/**").permitAll()
+                        .requestMatchers("/scheduler/**").hasRole("ADMIN")
                         .anyRequest().authenticated()
                 )
                 .exceptionHandling(exception ->
@@ -0,0 +1,67 @@
+package com.habitxp.backend.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompletionHistoryTest {
+
+    private static Completion completion(LocalDateTime timestamp, String userId, int minutes) {
+        return Completion.builder().timestamp(timestamp).userId(userId).durationMinutes(minutes).build();
+    }
+
+    @Test
+    void shouldRoundTripInTimestampOrder() {
+        LocalDateTime start = LocalDateTime.of(2025, 1, 1, 7, 30, 15);
+        List<Completion> completions = List.of(
+                completion(start.plusDays(2), "user1", 30),
+                completion(start, "user1", 30),
+                completion(start.plusDays(1), null, 1));
+
+        CompletionHistory decoded = CompletionHistory.of(CompletionHistory.encode(completions).bytes());
+
+        assertThat(decoded.size()).isEqualTo(3);
+        assertThat(decoded.completions()).containsExactly(
+                completion(start, "user1", 30),
+                completion(start.plusDays(1), null, 1),
+                completion(start.plusDays(2), "user1", 30));
+    }
+
+    @Test
+    void shouldPackDailyHistoryIntoFewBytesPerEntry() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 8, 0);
+        List<Completion> completions = new ArrayList<>();
+        for (int day = 0; day < 365; day++) {
+            completions.add(completion(start.plusDays(day).plusMinutes(day % 90), "6650a1f3c2e4b81234567890", 30));
+        }
+
+        byte[] bytes = CompletionHistory.encode(completions).bytes();
+
+        // Tagesabstand passt in 3 Bytes, User-Index und Minuten in je 1
+        assertThat(bytes.length).isLessThan(365 * 5 + 40);
+        assertThat(CompletionHistory.of(bytes).completions()).hasSize(365);
+    }
+
+    @Test
+    void shouldAppendWithoutDuplicates() {
+        LocalDateTime start = LocalDateTime.of(2025, 1, 1, 7, 30);
+        CompletionHistory history = CompletionHistory.encode(List.of(completion(start, "user1", 30)));
+
+        CompletionHistory appended = history.append(List.of(
+                completion(start.withNano(5_000_000), "user1", 30),
+                completion(start.plusHours(1), "user1", 30)));
+
+        assertThat(appended.completions()).extracting(Completion::getTimestamp).containsExactly(start, start.plusHours(1));
+    }
+
+    @Test
+    void shouldRejectUnknownVersion() {
+        assertThatThrownBy(() -> CompletionHistory.of(new byte[]{9, 0, 0}).size())
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,57 @@
+package com.habitxp.backend.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PeriodCalendarTest {
+
+    @Test
+    void shouldStartWeeksOnMonday() {
+        LocalDate sunday = LocalDate.of(2025, 3, 9);
+        LocalDate monday = LocalDate.of(2025, 3, 10);
+
+        assertThat(PeriodCalendar.key(Frequency.WEEKLY, sunday)).isEqualTo(PeriodCalendar.key(Frequency.WEEKLY, sunday.minusDays(6)));
+        assertThat(PeriodCalendar.key(Frequency.WEEKLY, monday)).isEqualTo(PeriodCalendar.key(Frequency.WEEKLY, sunday) + 1);
+    }
+
+    @Test
+    void shouldKeepWeekAcrossYearBoundary() {
+        assertThat(PeriodCalendar.key(Frequency.WEEKLY, LocalDate.of(2024, 12, 31)))
+                .isEqualTo(PeriodCalendar.key(Frequency.WEEKLY, LocalDate.of(2025, 1, 1)));
+        assertThat(PeriodCalendar.key(Frequency.MONTHLY, LocalDate.of(2024, 12, 31)) + 1)
+                .isEqualTo(PeriodCalendar.key(Frequency.MONTHLY, LocalDate.of(2025, 1, 1)));
+    }
+
+    @Test
+    void shouldUseLocalDateOfZone() {
+        Instant instant = Instant.parse("2025-03-09T23:30:00Z");
+
+        assertThat(PeriodCalendar.key(Frequency.DAILY, instant, ZoneId.of("Europe/Berlin")))
+                .isEqualTo(PeriodCalendar.key(Frequency.DAILY, instant, ZoneId.of("UTC")) + 1);
+        assertThat(PeriodCalendar.key(Frequency.NONE, instant, ZoneId.of("UTC"))).isZero();
+    }
+
+    @Test
+    void shouldMatchCurrentDate() {
+        ZoneId zone = ZoneId.of("Asia/Tokyo");
+
+        assertThat(PeriodCalendar.currentKey(Frequency.DAILY, zone)).isEqualTo(LocalDate.now(zone).toEpochDay());
+    }
+
+    @Test
+    void shouldDetectFirstHourWhenMidnightIsSkipped() {
+        // In Santiago begann der 11.09.2022 wegen der Zeitumstellung erst um 01:00
+        ZoneId santiago = ZoneId.of("America/Santiago");
+        Instant dayStart = LocalDate.of(2022, 9, 11).atStartOfDay(santiago).toInstant();
+
+        assertThat(LocalDateTime.ofInstant(dayStart, santiago).getHour()).isEqualTo(1);
+        assertThat(PeriodCalendar.isFirstHourOfDay(dayStart, santiago)).isTrue();
+        assertThat(PeriodCalendar.isFirstHourOfDay(dayStart.plusSeconds(3600), santiago)).isFalse();
+    }
+}
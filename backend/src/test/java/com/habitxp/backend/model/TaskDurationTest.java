@@ -0,0 +1,36 @@
+package com.habitxp.backend.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TaskDurationTest {
+
+    @Test
+    void shouldParseTimeUnits() {
+        assertThat(TaskDuration.parse("30min")).isEqualTo(new TaskDuration(DurationUnit.MIN, 30, 30));
+        assertThat(TaskDuration.parse(" 1,5H ")).isEqualTo(new TaskDuration(DurationUnit.H, 1.5, 90));
+        assertThat(TaskDuration.parse("45 min").minutes()).isEqualTo(45);
+    }
+
+    @Test
+    void shouldCountQuantitiesAsOneMinute() {
+        TaskDuration distance = TaskDuration.parse("2.5km");
+
+        assertThat(distance.unit()).isEqualTo(DurationUnit.KM);
+        assertThat(distance.amount()).isEqualTo(2.5);
+        assertThat(distance.minutes()).isEqualTo(1);
+        assertThat(distance.isTimeBased()).isFalse();
+        assertThat(TaskDuration.parse("500m").unit()).isEqualTo(DurationUnit.M);
+        assertThat(TaskDuration.parse("3pcs").unit()).isEqualTo(DurationUnit.PCS);
+    }
+
+    @Test
+    void shouldRejectUnknownFormats() {
+        assertThatThrownBy(() -> TaskDuration.parse("abc")).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Invalid");
+        assertThatThrownBy(() -> TaskDuration.parse("h")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TaskDuration.parse("1.5.2h")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TaskDuration.parse(null)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -3,6 +3,7 @@ package com.habitxp.backend.model;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -51,13 +52,8 @@ class TaskTest {
     @Test
     void shouldCompleteWhenAllPeriodsAreMet() {
         task.markAsCompleted(user);
-        task.getCompletions().add(
-                Completion.builder()
-                        .userId("user1")
-                        .timestamp(LocalDateTime.now().minusMinutes(31)) // simulate time passed
-                        .durationMinutes(30)
-                        .build()
-        );
+        task.setLastCompletedAt(LocalDateTime.now().minusMinutes(31)); // simulate time passed
+        task.markAsCompleted(user);
         assertThat(task.isPeriodCompleted()).isTrue();
     }
 
@@ -107,4 +103,109 @@ class TaskTest {
         boolean result = t.markAsCompleted(user);
         assertThat(result).isTrue();
     }
+
+    @Test
+    void shouldKeepOnlyCurrentPeriodOnTask() {
+        LocalDateTime now = LocalDateTime.now();
+        task.setCompletions(List.of(
+                Completion.builder().userId("user1").timestamp(now.minusDays(3)).durationMinutes(30).build(),
+                Completion.builder().userId("user1").timestamp(now.minusDays(1)).durationMinutes(30).build(),
+                Completion.builder().userId("user1").timestamp(now).durationMinutes(30).build()
+        ));
+
+        task.retainCurrentPeriod();
+
+        assertThat(task.getCompletions()).extracting(Completion::getTimestamp).containsExactly(now);
+    }
+
+    @Test
+    void shouldNotKeepMoreThanTimesCompletions() {
+        task.setFrequency(Frequency.NONE);
+        task.setCompletions(List.of(
+                Completion.builder().userId("user1").timestamp(LocalDateTime.now().minusDays(3)).durationMinutes(30).build(),
+                Completion.builder().userId("user1").timestamp(LocalDateTime.now().minusDays(2)).durationMinutes(30).build()
+        ));
+
+        // Periode mit times Erledigungen schon erfüllt: keine weitere
+        assertThat(task.markAsCompleted(user)).isFalse();
+        assertThat(task.getCompletions()).hasSize(2);
+    }
+
+    @Test
+    void shouldRejectCompletionBeyondTimesInSamePeriod() {
+        task.setPeriodKey(PeriodCalendar.currentKey(Frequency.DAILY));
+        task.setPeriodCount(2);
+        task.setLastCompletedAt(LocalDateTime.now().minusHours(2));
+
+        assertThat(task.markAsCompleted(user)).isFalse();
+        assertThat(task.mergeCompletion("user1", LocalDateTime.now().minusMinutes(40))).isFalse();
+        assertThat(task.getPeriodCount()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldRespectCooldownAfterPeriodWasTrimmed() {
+        task.setLastCompletedAt(LocalDateTime.now().minusMinutes(5));
+
+        assertThat(task.markAsCompleted(user)).isFalse();
+    }
+
+    @Test
+    void shouldStartNewPeriodWithZeroCount() {
+        task.setPeriodKey((int) LocalDate.now().minusDays(1).toEpochDay());
+        task.setPeriodCount(2);
+
+        task.updateCompletionStatus();
+
+        assertThat(task.isCompleted()).isFalse();
+        assertThat(task.remainingCompletions()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldCountUpWithinPeriod() {
+        task.markAsCompleted(user);
+
+        assertThat(task.getPeriodKey()).isEqualTo((int) LocalDate.now().toEpochDay());
+        assertThat(task.getPeriodCount()).isEqualTo(1);
+        assertThat(task.remainingCompletions()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldDeriveCountForTasksWithoutCounter() {
+        task.setCompletions(List.of(
+                Completion.builder().userId("user1").timestamp(LocalDateTime.now()).durationMinutes(30).build(),
+                Completion.builder().userId("user1").timestamp(LocalDateTime.now()).durationMinutes(30).build()
+        ));
+
+        assertThat(task.isPeriodCompleted()).isTrue();
+    }
+
+    @Test
+    void shouldMergeEarlierOfflineCompletionBetweenNeighbours() {
+        LocalDateTime morning = LocalDate.now().atStartOfDay().plusHours(8);
+        assertThat(task.mergeCompletion("user1", morning.plusHours(2))).isTrue();
+
+        // Früher als die letzte Erledigung, aber außerhalb des 30-Minuten-Cooldowns
+        assertThat(task.mergeCompletion("user1", morning)).isTrue();
+
+        assertThat(task.getLastCompletedAt()).isEqualTo(morning.plusHours(2));
+        assertThat(task.getCompletions()).extracting(Completion::getTimestamp).containsExactly(morning, morning.plusHours(2));
+        assertThat(task.getPeriodCount()).isEqualTo(2);
+        assertThat(task.isCompleted()).isTrue();
+    }
+
+    @Test
+    void shouldRejectOfflineCompletionWithinCooldownOfLaterNeighbour() {
+        LocalDateTime morning = LocalDate.now().atStartOfDay().plusHours(8);
+        task.mergeCompletion("user1", morning);
+
+        assertThat(task.mergeCompletion("user1", morning.minusMinutes(10))).isFalse();
+        assertThat(task.mergeCompletion("user1", morning)).isFalse();
+        assertThat(task.getPeriodCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRejectOfflineCompletionOfClosedPeriod() {
+        assertThat(task.mergeCompletion("user1", LocalDate.now().minusDays(1).atTime(12, 0))).isFalse();
+        assertThat(task.getCompletions()).isEmpty();
+    }
 }
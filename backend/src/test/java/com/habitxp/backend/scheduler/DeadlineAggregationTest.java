@@ -0,0 +1,97 @@
+package com.habitxp.backend.scheduler;
+
+import com.habitxp.backend.model.Task;
+import com.habitxp.backend.model.User;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class DeadlineAggregationTest {
+    @Mock
+    private MongoTemplate mongoTemplate;
+    @Mock
+    private MongoConverter converter;
+
+    private DeadlineAggregation deadlineAggregation;
+
+    private final MaintenanceTick tick = new MaintenanceTick(Instant.now(), LocalDate.now(), false);
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        deadlineAggregation = new DeadlineAggregation(mongoTemplate);
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        when(converter.convertToMongoType(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(mongoTemplate.getCollectionName(Task.class)).thenReturn("tasks");
+        when(mongoTemplate.getCollectionName(User.class)).thenReturn("users");
+        when(mongoTemplate.updateMulti(any(Query.class), any(UpdateDefinition.class), any(Class.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        when(mongoTemplate.remove(any(Query.class), eq(Task.class))).thenReturn(DeleteResult.acknowledged(0));
+    }
+
+    @Test
+    void shouldGroupOverdueTasksAndJoinUsersInOnePipeline() {
+        Aggregation aggregation = deadlineAggregation.pipeline(tick, KeyRange.ALL, 100);
+
+        List<String> stages = aggregation.getPipeline().getOperations().stream()
+                .map(operation -> operation.toDocument(Aggregation.DEFAULT_CONTEXT).keySet().iterator().next())
+                .toList();
+        assertThat(stages).containsExactly("$match", "$group", "$lookup", "$unwind", "$project");
+    }
+
+    @Test
+    void shouldPenalizeOnlyUsersFlaggedByAggregation() {
+        when(mongoTemplate.aggregateStream(any(Aggregation.class), anyString(), eq(Document.class))).thenReturn(Stream.of(
+                new Document("_id", "u1").append("penalize", true),
+                new Document("_id", "u2").append("penalize", false)));
+
+        DeadlineAggregation.Result result = deadlineAggregation.run(tick, KeyRange.ALL, "run", 100,
+                new MongoThrottle(1), () -> true);
+
+        assertThat(result.users()).isEqualTo(2);
+        verify(mongoTemplate).updateMulti(argThat(query -> query.getQueryObject().toString().contains("u1")
+                        && !query.getQueryObject().toString().contains("u2")),
+                any(UpdateDefinition.class), eq(User.class));
+        // u2 wird nur markiert, damit ein fortgesetzter Lauf ihn nach dem Zurücksetzen nicht doch bestraft
+        verify(mongoTemplate).updateMulti(argThat(query -> query.getQueryObject().toString().contains("u2")
+                        && !query.getQueryObject().toString().contains("u1")),
+                argThat((UpdateDefinition update) -> update.getUpdateObject().toString().contains("maintenanceStages.DeadlineAggregation")),
+                eq(User.class));
+        // offene und erledigte überfällige Tasks, deren Periode vorbei ist
+        verify(mongoTemplate, times(2)).updateMulti(any(Query.class), any(UpdateDefinition.class), eq(Task.class));
+        verify(mongoTemplate).updateMulti(argThat(query -> query.getQueryObject().toString().contains("periodKey")),
+                any(UpdateDefinition.class), eq(Task.class));
+    }
+
+    @Test
+    void shouldNotWriteAfterLosingLease() {
+        when(mongoTemplate.aggregateStream(any(Aggregation.class), anyString(), eq(Document.class)))
+                .thenReturn(Stream.of(new Document("_id", "u1").append("penalize", true)));
+
+        assertThatThrownBy(() -> deadlineAggregation.run(tick, KeyRange.ALL, "run", 100, new MongoThrottle(1), () -> false))
+                .isInstanceOf(IllegalStateException.class);
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(UpdateDefinition.class), any(Class.class));
+    }
+}
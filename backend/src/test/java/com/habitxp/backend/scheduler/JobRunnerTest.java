@@ -0,0 +1,88 @@
+package com.habitxp.backend.scheduler;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JobRunnerTest {
+
+    private final JobRunner jobRunner = new JobRunner();
+
+    @AfterEach
+    void tearDown() {
+        jobRunner.shutdown();
+    }
+
+    @Test
+    void shouldSkipTriggerWhileJobIsStillRunning() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        assertThat(jobRunner.trigger("slow", () -> {
+            await(release);
+            done.countDown();
+            return new JobResult(10, 2);
+        })).isTrue();
+        assertThat(jobRunner.trigger("slow", () -> JobResult.EMPTY)).isFalse();
+
+        release.countDown();
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        JobMetrics.Snapshot metrics = awaitIdle("slow");
+
+        assertThat(metrics.runs()).isEqualTo(1);
+        assertThat(metrics.skipped()).isEqualTo(1);
+        assertThat(metrics.lastScanned()).isEqualTo(10);
+        assertThat(metrics.lastWritten()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldNotBlockOtherJobs() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fastDone = new CountDownLatch(1);
+
+        jobRunner.trigger("slow", () -> {
+            await(release);
+            return JobResult.EMPTY;
+        });
+        jobRunner.trigger("fast", () -> {
+            fastDone.countDown();
+            return JobResult.EMPTY;
+        });
+
+        assertThat(fastDone.await(5, TimeUnit.SECONDS)).isTrue();
+        release.countDown();
+    }
+
+    @Test
+    void shouldCountFailures() throws InterruptedException {
+        jobRunner.trigger("broken", () -> {
+            throw new IllegalStateException("kaputt");
+        });
+
+        JobMetrics.Snapshot metrics = awaitIdle("broken");
+        assertThat(metrics.failures()).isEqualTo(1);
+        assertThat(jobRunner.trigger("broken", () -> JobResult.EMPTY)).isTrue();
+    }
+
+    private JobMetrics.Snapshot awaitIdle(String job) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            JobMetrics.Snapshot snapshot = jobRunner.metrics().stream()
+                    .filter(metrics -> metrics.job().equals(job)).findFirst().orElseThrow();
+            if (!snapshot.running()) return snapshot;
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Job " + job + " läuft noch");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
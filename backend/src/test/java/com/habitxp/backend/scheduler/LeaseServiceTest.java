@@ -0,0 +1,56 @@
+package com.habitxp.backend.scheduler;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class LeaseServiceTest {
+    @Mock
+    private MongoTemplate mongoTemplate;
+    @Mock
+    private JobRunner jobRunner;
+
+    private LeaseService leaseService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        leaseService = new LeaseService(mongoTemplate, jobRunner);
+        ReflectionTestUtils.setField(leaseService, "ttlMs", 60000L);
+    }
+
+    @Test
+    void shouldHandOutFencingTokenFromStore() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class), eq(SchedulerLease.class)))
+                .thenReturn(SchedulerLease.builder().id("run/0").owner(leaseService.getNodeId()).token(7).build());
+
+        Optional<Lease> lease = leaseService.tryAcquire("run/0");
+
+        assertThat(lease).isPresent();
+        assertThat(lease.get().token()).isEqualTo(7);
+        assertThat(lease.get().owner()).isEqualTo(leaseService.getNodeId());
+    }
+
+    @Test
+    void shouldNotAcquireLeaseHeldByOtherNode() {
+        // Upsert kollidiert mit dem bestehenden, fremden Lease
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class), eq(SchedulerLease.class)))
+                .thenThrow(new DuplicateKeyException("E11000"));
+
+        assertThat(leaseService.tryAcquire("run/0")).isEmpty();
+    }
+}
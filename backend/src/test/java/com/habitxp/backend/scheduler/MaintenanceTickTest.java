@@ -0,0 +1,59 @@
+package com.habitxp.backend.scheduler;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MaintenanceTickTest {
+
+    @Test
+    void shouldBucketZonesWhoseLocalMidnightJustPassed() {
+        // 23:00 UTC: in Berlin (Winterzeit) ist es 0 Uhr am nächsten Tag, in New York 18 Uhr
+        Instant now = Instant.parse("2025-01-14T23:00:00Z");
+
+        MaintenanceTick tick = bucketWith(MaintenanceTick.buckets(now, ZoneId.of("UTC")), "Europe/Berlin");
+
+        assertThat(tick.zones()).contains("Europe/Berlin").doesNotContain("America/New_York", "UTC", null);
+        assertThat(tick.today()).isEqualTo(LocalDate.of(2025, 1, 15));
+        assertThat(tick.midnight()).isTrue();
+    }
+
+    @Test
+    void shouldIncludeUsersWithoutZoneWhenDefaultZoneIsInBucket() {
+        Instant now = Instant.parse("2025-01-15T00:00:00Z");
+
+        MaintenanceTick tick = bucketWith(MaintenanceTick.buckets(now, ZoneId.of("UTC")), "UTC");
+
+        assertThat(tick.zones()).contains("UTC").containsNull();
+        assertThat(tick.today()).isEqualTo(LocalDate.of(2025, 1, 15));
+    }
+
+    @Test
+    void shouldSplitBucketByLocalDate() {
+        // 10:00 UTC: Mitternacht in Kiritimati (UTC+14) am 16., in Honolulu (UTC-10) am 15.
+        Instant now = Instant.parse("2025-01-15T10:00:00Z");
+
+        List<MaintenanceTick> ticks = MaintenanceTick.buckets(now, ZoneId.of("UTC"));
+
+        assertThat(ticks).extracting(MaintenanceTick::today).containsExactly(LocalDate.of(2025, 1, 15), LocalDate.of(2025, 1, 16));
+        assertThat(bucketWith(ticks, "Pacific/Honolulu").today()).isEqualTo(LocalDate.of(2025, 1, 15));
+        assertThat(bucketWith(ticks, "Pacific/Kiritimati").today()).isEqualTo(LocalDate.of(2025, 1, 16));
+        assertThat(bucketWith(ticks, "Pacific/Honolulu").zones()).doesNotContain("Pacific/Kiritimati");
+    }
+
+    private static MaintenanceTick bucketWith(List<MaintenanceTick> ticks, String zone) {
+        return ticks.stream().filter(tick -> tick.zones().contains(zone)).findFirst().orElseThrow();
+    }
+
+    @Test
+    void shouldNotFilterTickForAllUsers() {
+        MaintenanceTick tick = new MaintenanceTick(Instant.now(), LocalDate.now(), true);
+
+        assertThat(tick.userFilter()).isEmpty();
+    }
+}
@@ -0,0 +1,109 @@
+package com.habitxp.backend.service;
+
+import com.habitxp.backend.model.Completion;
+import com.habitxp.backend.model.TaskCompletion;
+import com.habitxp.backend.scheduler.JobResult;
+import com.habitxp.backend.scheduler.JobRunner;
+import com.habitxp.backend.scheduler.Lease;
+import com.habitxp.backend.scheduler.LeaseService;
+import com.mongodb.client.result.DeleteResult;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class CompletionArchiveServiceTest {
+    @Mock
+    private MongoTemplate mongoTemplate;
+    @Mock
+    private CompletionHistoryService completionHistory;
+    @Mock
+    private LeaseService leaseService;
+    @Mock
+    private JobRunner jobRunner;
+
+    @InjectMocks
+    private CompletionArchiveService archiveService;
+
+    private final LocalDateTime cutoff = LocalDateTime.of(2025, 1, 1, 0, 0);
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(archiveService, "afterDays", 90);
+        ReflectionTestUtils.setField(archiveService, "batchSize", 500);
+        when(mongoTemplate.remove(any(Query.class), eq(TaskCompletion.class)))
+                .thenAnswer(invocation -> DeleteResult.acknowledged(
+                        ((List<?>) ((Document) invocation.<Query>getArgument(0).getQueryObject().get("_id")).get("$in")).size()));
+    }
+
+    private static TaskCompletion completion(String taskId, LocalDateTime timestamp) {
+        return TaskCompletion.of(taskId, Completion.builder().userId("u1").timestamp(timestamp).durationMinutes(5).build());
+    }
+
+    @Test
+    void shouldArchiveEachTaskAndDeleteMovedEntries() {
+        when(mongoTemplate.stream(any(Query.class), eq(TaskCompletion.class))).thenReturn(Stream.of(
+                completion("t1", cutoff.minusDays(1)),
+                completion("t1", cutoff.minusDays(2)),
+                completion("t2", cutoff.minusDays(5))));
+
+        JobResult result = archiveService.archiveOlderThan(cutoff);
+
+        assertThat(result).isEqualTo(new JobResult(3, 3));
+        verify(completionHistory).archive(eq("t1"), eq("u1"), argThat(list -> list.size() == 2));
+        verify(completionHistory).archive(eq("t2"), eq("u1"), argThat(list -> list.size() == 1));
+        verify(mongoTemplate, times(2)).remove(any(Query.class), eq(TaskCompletion.class));
+    }
+
+    @Test
+    void shouldSplitLargeTasksIntoBatches() {
+        ReflectionTestUtils.setField(archiveService, "batchSize", 2);
+        when(mongoTemplate.stream(any(Query.class), eq(TaskCompletion.class))).thenReturn(Stream.of(
+                completion("t1", cutoff.minusDays(1)),
+                completion("t1", cutoff.minusDays(2)),
+                completion("t1", cutoff.minusDays(3))));
+
+        archiveService.archiveOlderThan(cutoff);
+
+        verify(completionHistory, times(2)).archive(eq("t1"), eq("u1"), anyList());
+    }
+
+    @Test
+    void shouldSkipWhenAnotherInstanceArchivesToday() {
+        when(leaseService.tryAcquire(any())).thenReturn(Optional.empty());
+
+        assertThat(archiveService.archiveDue()).isEqualTo(JobResult.EMPTY);
+        verifyNoInteractions(mongoTemplate, completionHistory);
+    }
+
+    @Test
+    void shouldReleaseLeaseWhenArchivingFails() {
+        Lease lease = new Lease("completion-archive/today", "node", 1);
+        when(leaseService.tryAcquire(any())).thenReturn(Optional.of(lease));
+        when(mongoTemplate.stream(any(Query.class), eq(TaskCompletion.class))).thenReturn(Stream.of(completion("t1", cutoff)));
+        doThrow(new IllegalStateException("busy")).when(completionHistory).archive(any(), any(), anyList());
+
+        assertThatThrownBy(() -> archiveService.archiveDue()).isInstanceOf(IllegalStateException.class);
+        verify(leaseService).release(lease);
+        verify(leaseService, never()).complete(any());
+    }
+}
@@ -0,0 +1,350 @@
+package com.habitxp.backend.service;
+
+import com.habitxp.backend.model.Frequency;
+import com.habitxp.backend.model.PeriodCalendar;
+import com.habitxp.backend.model.Task;
+import com.habitxp.backend.model.TaskCompletion;
+import com.habitxp.backend.model.User;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import com.mongodb.bulk.BulkWriteResult;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class CompletionEngineTest {
+    @Mock
+    private MongoTemplate mongoTemplate;
+    @Mock
+    private MongoConverter converter;
+
+    @InjectMocks
+    private CompletionEngine engine;
+
+    private Task task;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        when(converter.convertId(any(), any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(mongoTemplate.getCollectionName(Task.class)).thenReturn("tasks");
+
+        task = new Task();
+        task.setId("task123");
+        task.setUserId("user123");
+        task.setFrequency(Frequency.DAILY);
+        task.setDuration("30min");
+        task.parseDuration();
+        task.setTimes(1);
+        task.setRewardXP(10);
+        task.setRewardCoins(5);
+    }
+
+    // Ergebnis des findAndModify auf den Task; accepted wie _accepted aus der Pipeline
+    private void completes(Task result, boolean accepted) {
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class), eq(Document.class), eq("tasks")))
+                .thenReturn(new Document("_id", result.getId()).append(CompletionEngine.ACCEPTED, accepted));
+        when(converter.read(eq(Task.class), any(Bson.class))).thenReturn(result);
+    }
+
+    @Test
+    void shouldCreditUserWhenPeriodIsCompleted() {
+        task.setCompleted(true);
+        User user = new User();
+        user.setId("user123");
+        user.setXp(25); // 20 XP für Level 1, also gerade aufgestiegen
+        user.setLevel(1);
+        completes(task, true);
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class), eq(User.class)))
+                .thenReturn(user);
+
+        CompletionEngine.Outcome outcome = engine.complete("task123", "user123");
+
+        assertThat(outcome.success()).isTrue();
+        assertThat(outcome.user()).isSameAs(user);
+        assertThat(outcome.levelup()).isTrue();
+        // Zwei Round-Trips, kein Lesen
+        verify(mongoTemplate, never()).findById(any(), any());
+    }
+
+    @Test
+    void shouldNotTouchUserWhilePeriodIsOpen() {
+        task.setTimes(3);
+        completes(task, true);
+
+        CompletionEngine.Outcome outcome = engine.complete("task123", "user123");
+
+        assertThat(outcome.success()).isTrue();
+        assertThat(outcome.user()).isNull();
+        verify(mongoTemplate, never()).findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class), eq(User.class));
+    }
+
+    @Test
+    void shouldReportRejectionWithoutSecondRead() {
+        completes(task, false);
+
+        CompletionEngine.Outcome outcome = engine.complete("task123", "user123");
+
+        assertThat(outcome.success()).isFalse();
+        assertThat(outcome.task()).isSameAs(task);
+        verify(mongoTemplate, never()).findById(any(), any());
+        verify(mongoTemplate, never()).findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class), eq(User.class));
+    }
+
+    @Test
+    void shouldHideTasksOfOtherUsers() {
+        assertThatThrownBy(() -> engine.complete("task123", "intruder"))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("Task not found");
+        verify(mongoTemplate).findAndModify(argThat((Query query) -> "intruder".equals(query.getQueryObject().get("userId"))),
+                any(UpdateDefinition.class), any(FindAndModifyOptions.class), eq(Document.class), eq("tasks"));
+    }
+
+    @Test
+    void shouldBackfillLegacyDurationOnce() {
+        BulkOperations ops = taskBulk(1);
+        Task legacy = new Task();
+        legacy.setId("legacy");
+        legacy.setDuration("2h");
+        Task unreadable = new Task();
+        unreadable.setId("unreadable");
+        unreadable.setDuration("viel");
+        when(mongoTemplate.stream(any(Query.class), eq(Task.class))).thenReturn(Stream.of(legacy, unreadable));
+
+        assertThat(engine.backfillParsedDuration()).isEqualTo(1);
+        verify(ops, times(1)).updateOne(any(Query.class), argThat((UpdateDefinition update) ->
+                update.getUpdateObject().toString().contains("parsedDuration")));
+    }
+
+    @Test
+    void shouldMatchLevelsOfUser() {
+        User user = new User();
+        for (int xp = 0; xp < 5000; xp += 7) {
+            user.setXp(xp);
+            assertThat(CompletionEngine.levelFor(xp)).isEqualTo(user.calculateLevel());
+        }
+    }
+
+    @Test
+    void shouldOnlyAcceptOutsideCooldown() {
+        String accepts = CompletionEngine.accepts(LocalDateTime.of(2025, 3, 12, 10, 0)).toJson();
+
+        assertThat(accepts).contains("$lastCompletedAt", "$parsedDuration.minutes");
+    }
+
+    @Test
+    void shouldOnlyAcceptWhileCurrentPeriodIsOpen() {
+        LocalDateTime now = LocalDateTime.of(2025, 3, 12, 10, 0);
+        List<Document> pipeline = CompletionEngine.completion("user123", now).toPipeline(Aggregation.DEFAULT_CONTEXT);
+
+        // Zähler nur, wenn er zur laufenden Periode gehört; sonst beginnt sie bei null
+        assertThat(pipeline.get(0).toJson()).contains(String.valueOf(PeriodCalendar.key(Frequency.DAILY, now.toLocalDate())));
+        assertThat(pipeline.get(2).toJson()).contains("$periodCount", "$periodKey");
+        assertThat(pipeline.get(3).get("$set", Document.class).get(CompletionEngine.ACCEPTED, Document.class).toJson())
+                .contains("$_count", "$times");
+    }
+
+    @Test
+    void shouldLeaveTaskUnchangedWhenNotAccepted() {
+        List<Document> pipeline = CompletionEngine.completion("user123", LocalDateTime.of(2025, 3, 12, 10, 0))
+                .toPipeline(Aggregation.DEFAULT_CONTEXT);
+
+        Document update = pipeline.get(4).get("$set", Document.class);
+        assertThat(update.keySet()).contains("version");
+        update.values().forEach(value ->
+                assertThat(((Document) value).getList("$cond", Object.class).get(0)).isEqualTo("$" + CompletionEngine.ACCEPTED));
+    }
+
+    @Test
+    void shouldRejectCompletionBeyondTimesInBatch() {
+        Task full = task("t1", 10);
+        full.setTimes(2);
+        full.setPeriodCount(2);
+        full.setPeriodKey(PeriodCalendar.currentKey(Frequency.DAILY));
+        full.setLastCompletedAt(LocalDateTime.now().minusHours(2));
+        when(mongoTemplate.find(any(Query.class), eq(Task.class))).thenReturn(List.of(full));
+
+        CompletionEngine.BatchOutcome outcome = engine.completeAll(List.of("t1"), "user123");
+
+        assertThat(outcome.outcomes().get(0).success()).isFalse();
+        assertThat(full.getPeriodCount()).isEqualTo(2);
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Task.class));
+        verify(mongoTemplate, never()).findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class), eq(User.class));
+    }
+
+    @Test
+    void shouldCreditScaledXpAndCoinsInOnePipeline() {
+        List<Document> pipeline = CompletionEngine.reward(task.getRewardXP(), task.getRewardCoins(), LocalDate.of(2025, 3, 12))
+                .toPipeline(Aggregation.DEFAULT_CONTEXT);
+
+        Document credit = pipeline.get(0).get("$set", Document.class);
+        assertThat(credit.toJson()).contains("\"$xpFactor\"", "\"$coins\"", "5");
+        assertThat(credit.keySet()).contains("xp", "coins", "streakBroken");
+        assertThat(pipeline.get(1).get("$set", Document.class).keySet()).contains("level", "streak", "lastStreakUpdate");
+    }
+
+    @Test
+    void shouldKeepAtMostTimesCompletionsOnTask() {
+        List<Document> pipeline = CompletionEngine.completion("user123", LocalDateTime.of(2025, 3, 12, 10, 0))
+                .toPipeline(Aggregation.DEFAULT_CONTEXT);
+
+        Document update = pipeline.get(4).get("$set", Document.class);
+        assertThat(update.keySet()).contains("periodCount", "periodKey", "lastCompletedAt", "periodCompletions", "isCompleted");
+        assertThat(update.get("periodCompletions", Document.class).toJson()).contains("$slice", "$times");
+    }
+
+    private BulkOperations taskBulk(int modified) {
+        BulkOperations ops = mock(BulkOperations.class, RETURNS_SELF);
+        BulkWriteResult result = mock(BulkWriteResult.class);
+        when(result.getModifiedCount()).thenReturn(modified);
+        when(result.getMatchedCount()).thenReturn(modified);
+        when(ops.execute()).thenReturn(result);
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Task.class))).thenReturn(ops);
+        return ops;
+    }
+
+    private Task task(String id, int rewardXP) {
+        Task other = Task.builder().id(id).userId("user123").version(2L).frequency(Frequency.DAILY)
+                .duration("1pcs").times(1).rewardXP(rewardXP).rewardCoins(1).completions(new ArrayList<>()).build();
+        other.parseDuration();
+        return other;
+    }
+
+    private Task written(String id, long version, int periodCount, LocalDateTime lastCompletedAt) {
+        Task written = new Task();
+        written.setId(id);
+        written.setVersion(version);
+        written.setPeriodCount(periodCount);
+        written.setLastCompletedAt(lastCompletedAt);
+        return written;
+    }
+
+    @Test
+    void shouldCompleteBatchWithOneReadOneBulkAndOneCredit() {
+        BulkOperations ops = taskBulk(2);
+        when(mongoTemplate.find(any(Query.class), eq(Task.class))).thenReturn(List.of(task("t1", 10), task("t2", 5)));
+        User user = User.builder().id("user123").xp(15).level(0).xpFactor(1).build();
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class), eq(User.class)))
+                .thenReturn(user);
+
+        CompletionEngine.BatchOutcome batch = engine.completeAll(List.of("t1", "unknown", "t2"), "user123");
+
+        assertThat(batch.outcomes()).hasSize(3);
+        assertThat(batch.outcomes().get(0).success()).isTrue();
+        assertThat(batch.outcomes().get(1)).isNull();
+        assertThat(batch.outcomes().get(2).task().isCompleted()).isTrue();
+        assertThat(batch.user()).isSameAs(user);
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(Task.class));
+        verify(ops, times(2)).updateOne(any(Query.class), any(UpdateDefinition.class));
+        verify(ops, times(1)).execute();
+        // XP beider Tasks in einem einzigen Update
+        verify(mongoTemplate, times(1)).findAndModify(any(Query.class), argThat(update ->
+                        update instanceof AggregationUpdate aggregation
+                                && aggregation.toPipeline(Aggregation.DEFAULT_CONTEXT).get(0).toJson().contains("15")),
+                any(FindAndModifyOptions.class), eq(User.class));
+    }
+
+    @Test
+    void shouldFallBackToSingleCompletionForConflictingTasks() {
+        taskBulk(1);
+        Task t1 = task("t1", 10);
+        Task t2 = task("t2", 5);
+        when(mongoTemplate.find(any(Query.class), eq(Task.class))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            if (query.getFieldsObject().isEmpty()) {
+                return List.of(t1, t2);
+            }
+            // t1 wurde geschrieben, t2 hat inzwischen jemand anderes geändert
+            return List.of(written("t1", 3, 1, t1.getLastCompletedAt().truncatedTo(ChronoUnit.MILLIS)),
+                    written("t2", 3, 0, LocalDateTime.now().minusDays(1)));
+        });
+        Task cooling = task("t2", 5);
+        completes(cooling, false);
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class), eq(User.class)))
+                .thenReturn(User.builder().id("user123").xp(10).build());
+
+        CompletionEngine.BatchOutcome batch = engine.completeAll(List.of("t1", "t2"), "user123");
+
+        assertThat(batch.outcomes().get(0).success()).isTrue();
+        assertThat(batch.outcomes().get(1).success()).isFalse();
+        assertThat(batch.outcomes().get(1).task()).isSameAs(cooling);
+    }
+
+    @Test
+    void shouldSyncInOneReadOneBulkAndOneCredit() {
+        BulkOperations ops = taskBulk(1);
+        LocalDateTime morning = LocalDate.now().atStartOfDay().plusHours(8);
+        Task daily = task("t1", 10);
+        daily.setTimes(2);
+        daily.setDuration("30min");
+        daily.parseDuration();
+        when(mongoTemplate.find(any(Query.class), eq(Task.class))).thenReturn(List.of(daily));
+        User user = User.builder().id("user123").xp(10).level(0).xpFactor(1).build();
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class), eq(User.class)))
+                .thenReturn(user);
+
+        CompletionEngine.SyncOutcome outcome = engine.sync("user123", List.of(
+                new CompletionEngine.SyncEntry("t1", morning),
+                new CompletionEngine.SyncEntry("t1", morning.plusMinutes(5)),
+                new CompletionEngine.SyncEntry("gone", morning.plusMinutes(7)),
+                new CompletionEngine.SyncEntry("t1", morning.plusHours(1)),
+                new CompletionEngine.SyncEntry("t1", LocalDate.now().minusDays(1).atTime(9, 0))));
+
+        assertThat(outcome.accepted()).extracting(TaskCompletion::getTimestamp).containsExactly(morning, morning.plusHours(1));
+        assertThat(outcome.rejected()).extracting(CompletionEngine.Rejection::reason)
+                .containsExactlyInAnyOrder("Cooldown", "Task not found", "Period closed");
+        assertThat(outcome.changed()).containsExactly(daily);
+        assertThat(outcome.rewardXP()).isEqualTo(10);
+        assertThat(outcome.user()).isSameAs(user);
+        verify(ops, times(1)).updateOne(any(Query.class), any(UpdateDefinition.class));
+        verify(mongoTemplate, times(1)).findAndModify(any(Query.class), any(UpdateDefinition.class),
+                any(FindAndModifyOptions.class), eq(User.class));
+    }
+
+    @Test
+    void shouldRereadConflictingTaskAndGiveUpAfterRetries() {
+        taskBulk(0);
+        LocalDateTime morning = LocalDate.now().atStartOfDay().plusHours(8);
+        // Jeder Versuch liest neu; die Version ist jedes Mal schon weiter
+        when(mongoTemplate.find(any(Query.class), eq(Task.class))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            return query.getFieldsObject().isEmpty()
+                    ? List.of(task("t1", 10))
+                    : List.of(written("t1", 9, 0, null));
+        });
+
+        CompletionEngine.SyncOutcome outcome = engine.sync("user123", List.of(new CompletionEngine.SyncEntry("t1", morning)));
+
+        assertThat(outcome.accepted()).isEmpty();
+        assertThat(outcome.rejected()).extracting(CompletionEngine.Rejection::reason).containsExactly(CompletionEngine.SYNC_CONFLICT);
+        assertThat(outcome.user()).isNull();
+        verify(mongoTemplate, times(6)).find(any(Query.class), eq(Task.class));
+        verify(mongoTemplate, never()).findAndModify(any(Query.class), any(UpdateDefinition.class),
+                any(FindAndModifyOptions.class), eq(User.class));
+    }
+}
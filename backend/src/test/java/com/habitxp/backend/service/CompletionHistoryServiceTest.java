@@ -0,0 +1,150 @@
+package com.habitxp.backend.service;
+
+import com.habitxp.backend.model.Completion;
+import com.habitxp.backend.model.CompletionHistory;
+import com.habitxp.backend.model.Task;
+import com.habitxp.backend.model.TaskCompletion;
+import com.habitxp.backend.model.TaskHistory;
+import com.habitxp.backend.repository.TaskCompletionRepository;
+import com.habitxp.backend.repository.TaskHistoryRepository;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatNoException;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class CompletionHistoryServiceTest {
+    @Mock
+    private TaskCompletionRepository completionRepository;
+    @Mock
+    private MongoTemplate mongoTemplate;
+    @Mock
+    private TaskHistoryRepository historyRepository;
+
+    @InjectMocks
+    private CompletionHistoryService completionHistory;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        when(mongoTemplate.getCollectionName(Task.class)).thenReturn("tasks");
+    }
+
+    private static Date date(LocalDateTime time) {
+        return Date.from(time.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    @Test
+    void shouldIgnoreAlreadyRecordedCompletion() {
+        Completion completion = Completion.builder().userId("u1").timestamp(LocalDateTime.now()).durationMinutes(5).build();
+        BulkOperations ops = mock(BulkOperations.class, RETURNS_SELF);
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(TaskCompletion.class))).thenReturn(ops);
+        MongoBulkWriteException duplicate = mock(MongoBulkWriteException.class);
+        when(duplicate.getWriteErrors()).thenReturn(List.of(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 0)));
+        BulkOperationException failure = new BulkOperationException("dup", duplicate);
+        when(ops.execute()).thenThrow(failure);
+
+        assertThatNoException().isThrownBy(() -> completionHistory.recordAll(List.of(TaskCompletion.of("t1", completion))));
+    }
+
+    @Test
+    void shouldUseStableIdsPerTaskAndTimestamp() {
+        Completion completion = Completion.builder().userId("u1").timestamp(LocalDateTime.of(2025, 1, 1, 12, 0)).build();
+
+        assertThat(TaskCompletion.of("t1", completion).getId()).isEqualTo(TaskCompletion.of("t1", completion).getId());
+        assertThat(TaskCompletion.of("t2", completion).getId()).isNotEqualTo(TaskCompletion.of("t1", completion).getId());
+    }
+
+    @Test
+    void shouldMoveLegacyCompletionsIntoHistory() {
+        LocalDateTime now = LocalDateTime.now().withNano(0);
+        Document legacy = new Document("_id", "t1").append("userId", "u1").append("frequency", "DAILY").append("times", 2)
+                .append("completions", List.of(
+                        new Document("timestamp", date(now.minusDays(10))).append("userId", "u1").append("durationMinutes", 5),
+                        new Document("timestamp", date(now)).append("userId", "u1").append("durationMinutes", 5)));
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("tasks"))).thenReturn(Stream.of(legacy));
+
+        assertThat(completionHistory.migrateLegacy()).isEqualTo(1);
+
+        ArgumentCaptor<TaskHistory> archived = ArgumentCaptor.forClass(TaskHistory.class);
+        verify(historyRepository).insert(archived.capture());
+        assertThat(archived.getValue().getCount()).isEqualTo(2);
+        assertThat(archived.getValue().getUserId()).isEqualTo("u1");
+        verify(completionRepository, never()).insert(any(TaskCompletion.class));
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), update.capture(), eq("tasks"));
+        Document set = (Document) update.getValue().getUpdateObject().get("$set");
+        assertThat((List<?>) set.get("periodCompletions")).hasSize(1);
+        assertThat(set.get("lastCompletedAt")).isEqualTo(now);
+        assertThat(((Document) update.getValue().getUpdateObject().get("$unset")).keySet()).containsExactly("completions");
+    }
+
+    private static Completion at(LocalDateTime timestamp) {
+        return Completion.builder().userId("u1").timestamp(timestamp).durationMinutes(5).build();
+    }
+
+    @Test
+    void shouldMergeArchiveOnlyWhenRecentEntriesAreNotEnough() {
+        LocalDateTime now = LocalDateTime.of(2025, 3, 1, 12, 0);
+        when(completionRepository.findByTaskIdOrderByTimestampDesc(eq("t1"), any()))
+                .thenReturn(List.of(TaskCompletion.of("t1", at(now))));
+        when(historyRepository.findById("t1")).thenReturn(Optional.of(TaskHistory.builder().id("t1").count(2)
+                .completions(CompletionHistory.encode(List.of(at(now.minusDays(2)), at(now.minusDays(1))))).build()));
+
+        assertThat(completionHistory.history("t1", 2)).extracting(Completion::getTimestamp)
+                .containsExactly(now, now.minusDays(1));
+        assertThat(completionHistory.history("t1", 1)).hasSize(1);
+        verify(historyRepository, times(1)).findById("t1");
+    }
+
+    @Test
+    void shouldAppendToExistingArchiveConditionally() {
+        LocalDateTime now = LocalDateTime.of(2025, 3, 1, 12, 0);
+        TaskHistory existing = TaskHistory.builder().id("t1").userId("u1").count(1).newest(now.minusDays(1))
+                .completions(CompletionHistory.encode(List.of(at(now.minusDays(1))))).build();
+        when(historyRepository.findById("t1")).thenReturn(Optional.of(existing));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(TaskHistory.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null), UpdateResult.acknowledged(1, 1L, null));
+
+        completionHistory.archive("t1", "u1", List.of(at(now)));
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(2)).updateFirst(any(Query.class), update.capture(), eq(TaskHistory.class));
+        assertThat(((Document) update.getValue().getUpdateObject().get("$set")).get("count")).isEqualTo(2);
+    }
+}
@@ -0,0 +1,55 @@
+package com.habitxp.backend.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ConflictRetryTest {
+
+    private final ConflictRetry retry = new ConflictRetry(3, 0, 0);
+
+    @Test
+    void shouldRetryUntilSaveSucceeds() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = retry.run("task-update", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new OptimisticLockingFailureException("version");
+            }
+            return "ok";
+        });
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(retry.metrics()).containsExactly(new ConflictRetry.Snapshot("task-update", 1, 2, 0));
+    }
+
+    @Test
+    void shouldAnswerConflictWhenAttemptsAreExhausted() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> retry.run("shop-buy", () -> {
+            attempts.incrementAndGet();
+            throw new OptimisticLockingFailureException("version");
+        }))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("409");
+        assertThat(attempts).hasValue(3);
+        assertThat(retry.metrics()).containsExactly(new ConflictRetry.Snapshot("shop-buy", 1, 3, 1));
+    }
+
+    @Test
+    void shouldNotRetryOtherFailures() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> retry.run("level-up", () -> {
+            attempts.incrementAndGet();
+            throw new IllegalArgumentException("Ungültige Auswahl");
+        })).isInstanceOf(IllegalArgumentException.class);
+        assertThat(attempts).hasValue(1);
+    }
+}
@@ -0,0 +1,98 @@
+package com.habitxp.backend.service;
+
+import com.habitxp.backend.model.User;
+import com.habitxp.backend.scheduler.JobRunner;
+import com.mongodb.client.result.UpdateResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ScheduledFuture;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class EffectExpiryServiceTest {
+    @Mock
+    private MongoTemplate mongoTemplate;
+    @Mock
+    private TaskScheduler taskScheduler;
+    @Mock
+    private JobRunner jobRunner;
+
+    @InjectMocks
+    private EffectExpiryService effectExpiryService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        doReturn(mock(ScheduledFuture.class)).when(taskScheduler).schedule(any(Runnable.class), any(Instant.class));
+    }
+
+    @Test
+    void shouldOnlyMoveWakeUpForward() {
+        Instant later = Instant.now().plus(Duration.ofHours(5));
+        Instant sooner = Instant.now().plus(Duration.ofHours(1));
+
+        effectExpiryService.effectScheduled(User.builder().xpFactorUntil(later).build());
+        effectExpiryService.effectScheduled(User.builder().StreakFreezeUntil(sooner).build());
+        effectExpiryService.effectScheduled(User.builder().xpFactorUntil(later.plusSeconds(60)).build());
+
+        verify(taskScheduler).schedule(any(Runnable.class), eq(later.plusMillis(1)));
+        verify(taskScheduler).schedule(any(Runnable.class), eq(sooner.plusMillis(1)));
+        verify(taskScheduler, times(2)).schedule(any(Runnable.class), any(Instant.class));
+    }
+
+    @Test
+    void shouldRetryWhenWakeUpFiresWhileExpiryIsRunning() {
+        Instant due = Instant.now().minusSeconds(1);
+        effectExpiryService.effectScheduled(User.builder().xpFactorUntil(due).build());
+        ArgumentCaptor<Runnable> fired = ArgumentCaptor.forClass(Runnable.class);
+        verify(taskScheduler).schedule(fired.capture(), eq(due.plusMillis(1)));
+        when(jobRunner.trigger(eq("effect-expiry"), any())).thenReturn(false);
+
+        fired.getValue().run();
+
+        // Übersprungen: neuer Wecker statt eines, der auf dem vergangenen Zeitpunkt hängen bleibt
+        verify(taskScheduler, times(2)).schedule(any(Runnable.class), any(Instant.class));
+        verify(taskScheduler).schedule(any(Runnable.class), argThat((Instant at) -> at.isAfter(due.plusMillis(1))));
+    }
+
+    @Test
+    void shouldAcceptLaterWakeUpAfterFiring() {
+        Instant soon = Instant.now().plusSeconds(1);
+        Instant later = Instant.now().plus(Duration.ofHours(1));
+        effectExpiryService.effectScheduled(User.builder().xpFactorUntil(soon).build());
+        ArgumentCaptor<Runnable> fired = ArgumentCaptor.forClass(Runnable.class);
+        verify(taskScheduler).schedule(fired.capture(), eq(soon.plusMillis(1)));
+        when(jobRunner.trigger(eq("effect-expiry"), any())).thenReturn(true);
+
+        fired.getValue().run();
+        effectExpiryService.effectScheduled(User.builder().StreakFreezeUntil(later).build());
+
+        verify(taskScheduler).schedule(any(Runnable.class), eq(later.plusMillis(1)));
+    }
+
+    @Test
+    void shouldExpireDueEffectsServerSide() {
+        when(mongoTemplate.updateMulti(any(Query.class), any(UpdateDefinition.class), eq(User.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        effectExpiryService.expireDue();
+
+        verify(mongoTemplate, times(2)).updateMulti(any(Query.class), any(UpdateDefinition.class), eq(User.class));
+        verify(mongoTemplate, times(2)).findOne(any(Query.class), eq(User.class));
+        verify(taskScheduler, never()).schedule(any(Runnable.class), any(Instant.class));
+    }
+}
@@ -0,0 +1,142 @@
+package com.habitxp.backend.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.habitxp.backend.dto.BonusBuyResponse;
+import com.habitxp.backend.dto.CompletionResponse;
+import com.habitxp.backend.dto.UserProfileResponse;
+import com.habitxp.backend.model.IdempotencyRecord;
+import com.habitxp.backend.repository.IdempotencyRecordRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class IdempotencyServiceTest {
+    @Mock
+    private IdempotencyRecordRepository repository;
+    @Mock
+    private MongoTemplate mongoTemplate;
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    @InjectMocks
+    private IdempotencyService idempotency;
+
+    private final AtomicInteger executions = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(idempotency, "ttlHours", 24L);
+        ReflectionTestUtils.setField(idempotency, "pendingSeconds", 60L);
+        ReflectionTestUtils.setField(idempotency, "cacheSize", 100);
+        when(repository.findById(any())).thenReturn(Optional.empty());
+    }
+
+    private CompletionResponse complete() {
+        executions.incrementAndGet();
+        UserProfileResponse profile = new UserProfileResponse("user123", "anna", 3, 20, 20, 5, 35, 1, false,
+                null, 70, 4, 2, null, List.of());
+        return new CompletionResponse(true, true, true, 0, 10, 5, profile);
+    }
+
+    @Test
+    void shouldExecuteWithoutKey() {
+        idempotency.execute("complete", "user123", null, "task123", CompletionResponse.class, this::complete);
+        idempotency.execute("complete", "user123", " ", "task123", CompletionResponse.class, this::complete);
+
+        assertThat(executions).hasValue(2);
+        verifyNoInteractions(repository, mongoTemplate);
+    }
+
+    @Test
+    void shouldAnswerRetryFromCacheWithoutExecutingAgain() {
+        CompletionResponse first = idempotency.execute("complete", "user123", "k1", "task123", CompletionResponse.class, this::complete);
+        CompletionResponse retry = idempotency.execute("complete", "user123", "k1", "task123", CompletionResponse.class, this::complete);
+
+        assertThat(executions).hasValue(1);
+        assertThat(retry).isEqualTo(first);
+        assertThat(retry.getProfile().getCoins()).isEqualTo(70);
+        verify(repository, times(1)).findById(any());
+        verify(mongoTemplate).updateFirst(any(Query.class), any(UpdateDefinition.class), eq(IdempotencyRecord.class));
+    }
+
+    @Test
+    void shouldAnswerRetryFromStoredRecordOnOtherInstance() {
+        when(repository.findById("buy:user123:k2")).thenReturn(Optional.of(IdempotencyRecord.builder()
+                .id("buy:user123:k2").fingerprint("bonus1").done(true)
+                .response("{\"success\":true,\"otherBonusActive\":false}")
+                .expireAt(Instant.now().plusSeconds(3600)).build()));
+
+        BonusBuyResponse response = idempotency.execute("buy", "user123", "k2", "bonus1", BonusBuyResponse.class, () -> {
+            executions.incrementAndGet();
+            return new BonusBuyResponse(false, true);
+        });
+
+        assertThat(response.isSuccess()).isTrue();
+        assertThat(executions).hasValue(0);
+        verify(repository, never()).insert(any(IdempotencyRecord.class));
+    }
+
+    @Test
+    void shouldRejectKeyReusedForAnotherTask() {
+        idempotency.execute("complete", "user123", "k3", "task123", CompletionResponse.class, this::complete);
+
+        assertThatThrownBy(() -> idempotency.execute("complete", "user123", "k3", "task999", CompletionResponse.class, this::complete))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("different request");
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void shouldRejectParallelRequestWithSameKey() {
+        when(repository.insert(any(IdempotencyRecord.class))).thenThrow(new DuplicateKeyException("k4"));
+
+        assertThatThrownBy(() -> idempotency.execute("complete", "user123", "k4", "task123", CompletionResponse.class, this::complete))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("still in progress");
+        assertThat(executions).hasValue(0);
+    }
+
+    @Test
+    void shouldReleaseKeyWhenRequestFails() {
+        assertThatThrownBy(() -> idempotency.execute("complete", "user123", "k5", "task123", CompletionResponse.class, () -> {
+            throw new IllegalStateException("boom");
+        })).isInstanceOf(IllegalStateException.class);
+
+        verify(repository).deleteById("complete:user123:k5");
+        idempotency.execute("complete", "user123", "k5", "task123", CompletionResponse.class, this::complete);
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void shouldTakeOverAbandonedRequest() {
+        when(repository.findById("complete:user123:k6")).thenReturn(Optional.of(IdempotencyRecord.builder()
+                .id("complete:user123:k6").fingerprint("task123").done(false)
+                .expireAt(Instant.now().minusSeconds(5)).build()));
+
+        idempotency.execute("complete", "user123", "k6", "task123", CompletionResponse.class, this::complete);
+
+        verify(mongoTemplate).remove(any(Query.class), eq(IdempotencyRecord.class));
+        assertThat(executions).hasValue(1);
+    }
+}
@@ -0,0 +1,148 @@
+package com.habitxp.backend.service;
+
+import com.habitxp.backend.model.Frequency;
+import com.habitxp.backend.model.PeriodCalendar;
+import com.habitxp.backend.model.Task;
+import com.habitxp.backend.model.User;
+import com.habitxp.backend.repository.UserRepository;
+import com.mongodb.client.result.UpdateResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class LazyEvaluationServiceTest {
+    @Mock
+    private UserRepository userRepository;
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Spy
+    private ConflictRetry conflictRetry = new ConflictRetry(3, 0, 0);
+
+    @InjectMocks
+    private LazyEvaluationService lazyEvaluation;
+
+    private final ZoneId zone = ZoneId.of("Europe/Berlin");
+    private final LocalDate today = LocalDate.of(2025, 3, 10);
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(lazyEvaluation, "lazy", true);
+        ReflectionTestUtils.setField(lazyEvaluation, "defaultZone", "");
+        ReflectionTestUtils.setField(lazyEvaluation, "maxReplayDays", 400);
+    }
+
+    private Task task(String id, Frequency frequency, LocalDate deadline, boolean completed) {
+        return Task.builder().id(id).userId("u1").frequency(frequency).times(1)
+                .Deadline(deadline).isCompleted(completed).completions(new ArrayList<>()).build();
+    }
+
+    @Test
+    void shouldReplayEveryMissedMidnightInOrder() {
+        User user = User.builder().id("u1").health(5).coins(12).streak(4).lastEvaluatedDate(today.minusDays(3)).build();
+        Task daily = task("t1", Frequency.DAILY, today.minusDays(3), false);
+
+        LazyEvaluationService.Replay replay = lazyEvaluation.replay(user, List.of(daily), user.getLastEvaluatedDate(), today, zone);
+
+        // Drei Mitternächte mit verpasstem Task: je 2 HP und 5 Coins, nie unter 0
+        assertThat(user.getHealth()).isZero();
+        assertThat(user.getCoins()).isZero();
+        assertThat(user.getStreak()).isZero();
+        assertThat(user.isStreakBroken()).isTrue();
+        assertThat(user.getLastEvaluatedDate()).isEqualTo(today);
+        assertThat(replay.reset).containsExactly("t1");
+    }
+
+    @Test
+    void shouldNotPenalizeWhenOverdueTaskWasCompleted() {
+        User user = User.builder().id("u1").health(10).coins(10).streak(2).lastEvaluatedDate(today.minusDays(2)).build();
+        Task done = task("t1", Frequency.WEEKLY, today.minusDays(2), true);
+        Task once = task("t2", Frequency.NONE, today.minusDays(1), false);
+
+        LazyEvaluationService.Replay replay = lazyEvaluation.replay(user, List.of(done, once), user.getLastEvaluatedDate(), today, zone);
+
+        assertThat(user.getHealth()).isEqualTo(10);
+        assertThat(user.getStreak()).isEqualTo(2);
+        assertThat(replay.deleted).containsExactly(once);
+    }
+
+    @Test
+    void shouldPenalizeCompletedOverdueTaskOnceItsPeriodIsOver() {
+        User user = User.builder().id("u1").health(10).coins(10).streak(2).lastEvaluatedDate(today.minusDays(2)).build();
+        Task daily = task("t1", Frequency.DAILY, today.minusDays(3), true);
+        daily.setPeriodCount(1);
+        daily.setPeriodKey(PeriodCalendar.key(Frequency.DAILY, today.minusDays(2)));
+
+        LazyEvaluationService.Replay replay = lazyEvaluation.replay(user, List.of(daily), user.getLastEvaluatedDate(), today, zone);
+
+        // Erste Mitternacht: Erledigung zählt, danach neue Periode; zweite Mitternacht: verpasst
+        assertThat(user.getHealth()).isEqualTo(8);
+        assertThat(user.getStreak()).isZero();
+        assertThat(daily.isCompleted()).isFalse();
+        assertThat(replay.reset).containsExactly("t1");
+    }
+
+    @Test
+    void shouldStartCountingOnFirstAccess() {
+        User user = User.builder().id("u1").health(10).coins(10).zoneId("Europe/Berlin").build();
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(User.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        User evaluated = lazyEvaluation.evaluate(user);
+
+        assertThat(evaluated.getLastEvaluatedDate()).isEqualTo(LocalDate.now(zone));
+        assertThat(evaluated.getHealth()).isEqualTo(10);
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Task.class));
+    }
+
+    @Test
+    void shouldReloadWhenConcurrentAccessReplayedFirst() {
+        User stale = User.builder().id("u1").health(10).coins(10).lastEvaluatedDate(LocalDate.now().minusDays(2)).build();
+        User fresh = User.builder().id("u1").health(6).coins(0).lastEvaluatedDate(LocalDate.now()).build();
+        when(mongoTemplate.find(any(Query.class), eq(Task.class))).thenReturn(List.of());
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(User.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+        when(userRepository.findById("u1")).thenReturn(Optional.of(fresh));
+
+        assertThat(lazyEvaluation.evaluate(stale)).isSameAs(fresh);
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(UpdateDefinition.class), eq(Task.class));
+    }
+
+    @Test
+    void shouldReplayAgainWhenUserChangedConcurrently() {
+        User stale = User.builder().id("u1").version(3L).health(10).coins(10).lastEvaluatedDate(LocalDate.now().minusDays(2)).build();
+        // Gutschrift dazwischen: neue Version, aber noch nicht nachgespielt
+        User credited = User.builder().id("u1").version(4L).health(10).coins(25).lastEvaluatedDate(LocalDate.now().minusDays(2)).build();
+        when(mongoTemplate.find(any(Query.class), eq(Task.class))).thenReturn(List.of());
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(User.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null), UpdateResult.acknowledged(1, 1L, null));
+        when(userRepository.findById("u1")).thenReturn(Optional.of(credited));
+
+        User evaluated = lazyEvaluation.evaluate(stale);
+
+        assertThat(evaluated).isSameAs(credited);
+        assertThat(evaluated.getCoins()).isEqualTo(25);
+        assertThat(evaluated.getVersion()).isEqualTo(5L);
+        assertThat(conflictRetry.metrics()).singleElement()
+                .satisfies(snapshot -> assertThat(snapshot.conflicts()).isEqualTo(1));
+    }
+}
@@ -0,0 +1,61 @@
+package com.habitxp.backend.service;
+
+import com.habitxp.backend.model.Frequency;
+import com.habitxp.backend.model.Task;
+import com.habitxp.backend.scheduler.JobResult;
+import com.habitxp.backend.scheduler.JobRunner;
+import com.mongodb.client.result.UpdateResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class PeriodRolloverServiceTest {
+    @Mock
+    private MongoTemplate mongoTemplate;
+    @Mock
+    private JobRunner jobRunner;
+
+    @InjectMocks
+    private PeriodRolloverService rolloverService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    void shouldResetEachRollingFrequencyInOneUpdate() {
+        when(mongoTemplate.updateMulti(any(Query.class), any(UpdateDefinition.class), eq(Task.class)))
+                .thenReturn(UpdateResult.acknowledged(4, 3L, null));
+
+        JobResult result = rolloverService.rollover();
+
+        assertThat(result).isEqualTo(new JobResult(12, 9));
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(3)).updateMulti(queries.capture(), any(UpdateDefinition.class), eq(Task.class));
+        assertThat(queries.getAllValues()).extracting(query -> query.getQueryObject().toString())
+                .noneMatch(json -> json.contains("NONE"));
+    }
+
+    @Test
+    void shouldLeaveOverdueTasksForDeadlineStage() {
+        LocalDate today = LocalDate.of(2025, 3, 12);
+
+        String criteria = PeriodRolloverService.rolledOver(Frequency.WEEKLY, today).getCriteriaObject().toString();
+
+        assertThat(criteria).contains("$lt=2025-03-10T00:00", "Deadline=Document{{$gte=2025-03-12}}");
+    }
+}
@@ -0,0 +1,402 @@
+package com.habitxp.backend.service;
+
+import com.habitxp.backend.model.Frequency;
+import com.habitxp.backend.model.PeriodCalendar;
+import com.habitxp.backend.model.Space;
+import com.habitxp.backend.model.Task;
+import com.habitxp.backend.model.User;
+import com.habitxp.backend.repository.TaskRepository;
+import com.habitxp.backend.repository.UserRepository;
+import com.habitxp.backend.scheduler.DeadlineAggregation;
+import com.habitxp.backend.scheduler.DeadlineStage;
+import com.habitxp.backend.scheduler.HpPenaltyStage;
+import com.habitxp.backend.scheduler.JobResult;
+import com.habitxp.backend.scheduler.JobRunner;
+import com.habitxp.backend.scheduler.Lease;
+import com.habitxp.backend.scheduler.LeaseService;
+import com.habitxp.backend.scheduler.MaintenanceRun;
+import com.habitxp.backend.scheduler.MaintenanceRunStore;
+import com.habitxp.backend.scheduler.PartitionProgress;
+import com.habitxp.backend.scheduler.MaintenanceTick;
+import com.habitxp.backend.scheduler.StreakRestartStage;
+import com.habitxp.backend.scheduler.SweepExecutor;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class SchedulerServiceTest {
+    @Mock
+    private TaskRepository taskRepository;
+    @Mock
+    private UserRepository userRepository;
+    @Mock
+    private MongoTemplate mongoTemplate;
+    @Mock
+    private LeaseService leaseService;
+    @Mock
+    private MaintenanceRunStore runStore;
+    @Mock
+    private TaskScheduler taskScheduler;
+    @Mock
+    private DeadlineAggregation deadlineAggregation;
+    @Mock
+    private JobRunner jobRunner;
+    @Mock
+    private LazyEvaluationService lazyEvaluation;
+
+    private SchedulerService schedulerService;
+
+    private BulkOperations userOps;
+    private BulkOperations taskOps;
+    private BulkOperations spaceOps;
+
+    private final MaintenanceTick hourly = new MaintenanceTick(Instant.now(), LocalDate.now(), false);
+    private final MaintenanceTick midnight = new MaintenanceTick(Instant.now(), LocalDate.now(), true);
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        schedulerService = new SchedulerService(taskRepository, userRepository, mongoTemplate, List.of(
+                new HpPenaltyStage(), new StreakRestartStage(), new DeadlineStage()), leaseService, new SweepExecutor(2, 2), runStore, taskScheduler, deadlineAggregation, jobRunner, lazyEvaluation);
+        ReflectionTestUtils.setField(schedulerService, "pageSize", 1);
+        ReflectionTestUtils.setField(schedulerService, "bulkSize", 100);
+        ReflectionTestUtils.setField(schedulerService, "serverSide", true);
+        ReflectionTestUtils.setField(schedulerService, "partitions", 1);
+        ReflectionTestUtils.setField(schedulerService, "deadlineEngine", "java");
+
+        when(runStore.plan(any(MaintenanceTick.class), anyInt())).thenAnswer(invocation -> run(invocation.getArgument(0)));
+        when(runStore.findById(anyString())).thenReturn(Optional.empty());
+        when(leaseService.tryAcquire(anyString())).thenAnswer(invocation -> Optional.of(new Lease(invocation.getArgument(0), "node", 1)));
+        when(leaseService.isValid(any())).thenReturn(true);
+
+        userOps = bulkOpsFor(User.class);
+        taskOps = bulkOpsFor(Task.class);
+        spaceOps = bulkOpsFor(Space.class);
+        when(mongoTemplate.updateMulti(any(Query.class), any(UpdateDefinition.class), eq(User.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+    }
+
+    private MaintenanceRun run(MaintenanceTick tick, String... boundaries) {
+        return MaintenanceRun.builder().id("run")
+                .tickAt(tick.now()).today(tick.today()).midnight(tick.midnight()).zones(tick.zones())
+                .boundaries(List.of(boundaries)).build();
+    }
+
+    private BulkOperations bulkOpsFor(Class<?> type) {
+        BulkOperations ops = mock(BulkOperations.class, RETURNS_SELF);
+        when(ops.execute()).thenReturn(mock(BulkWriteResult.class));
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(type))).thenReturn(ops);
+        return ops;
+    }
+
+    private Task overdueTask(String id, String userId, Frequency frequency, boolean completed) {
+        return Task.builder().id(id).userId(userId).spaceId("space-" + userId)
+                .frequency(frequency).times(1).isCompleted(completed)
+                .Deadline(LocalDate.now().minusDays(1)).completions(new ArrayList<>()).build();
+    }
+
+    @Test
+    void shouldPenalizeOnlyUsersWithoutCompletedOverdueTasks() {
+        User missed = User.builder().id("u1").health(10).coins(10).streak(3).build();
+        User kept = User.builder().id("u2").health(10).coins(10).streak(3).build();
+        Task open = overdueTask("t1", "u1", Frequency.DAILY, false);
+        Task done = overdueTask("t2", "u2", Frequency.DAILY, true);
+
+        when(mongoTemplate.stream(any(Query.class), eq(Task.class))).thenReturn(Stream.of(open, done));
+        when(userRepository.findAllById(Set.of("u1"))).thenReturn(List.of(missed));
+        when(userRepository.findAllById(Set.of("u2"))).thenReturn(List.of(kept));
+
+        schedulerService.runMaintenance(hourly);
+
+        assertThat(missed.getStreak()).isZero();
+        assertThat(kept.getStreak()).isEqualTo(3);
+        verify(userOps, times(1)).updateOne(any(Query.class), any(UpdateDefinition.class));
+        verify(userOps, times(1)).execute();
+        verify(taskOps, times(1)).updateOne(any(Query.class), any(UpdateDefinition.class));
+        verify(mongoTemplate, never()).stream(any(Query.class), eq(User.class));
+    }
+
+    @Test
+    void shouldResetCompletedOverdueTaskOnceItsPeriodIsOver() {
+        User kept = User.builder().id("u1").health(10).coins(10).streak(3).build();
+        Task done = overdueTask("t1", "u1", Frequency.DAILY, true);
+        done.setPeriodKey(PeriodCalendar.key(Frequency.DAILY, LocalDate.now().minusDays(1)));
+
+        when(mongoTemplate.stream(any(Query.class), eq(Task.class))).thenReturn(Stream.of(done));
+        when(userRepository.findAllById(Set.of("u1"))).thenReturn(List.of(kept));
+
+        schedulerService.runMaintenance(hourly);
+
+        // Keine Strafe, aber isCompleted darf nicht über die Periode hinaus stehen bleiben
+        assertThat(kept.getStreak()).isEqualTo(3);
+        verify(taskOps).updateOne(argThat((Query query) -> query.getQueryObject().toString().contains("periodKey")),
+                argThat((UpdateDefinition update) -> update.getUpdateObject().toString().contains("isCompleted")));
+        verify(userOps, times(1)).updateOne(any(Query.class), any(UpdateDefinition.class));
+    }
+
+    @Test
+    void shouldDeleteExpiredOneTimeTasksInOneBatch() {
+        User user = User.builder().id("u1").health(10).coins(10).build();
+        Task first = overdueTask("t1", "u1", Frequency.NONE, false);
+        Task second = overdueTask("t2", "u1", Frequency.NONE, false);
+
+        when(mongoTemplate.stream(any(Query.class), eq(Task.class))).thenReturn(Stream.of(first, second));
+        when(userRepository.findAllById(Set.of("u1"))).thenReturn(List.of(user));
+
+        schedulerService.runMaintenance(hourly);
+
+        verify(spaceOps, times(2)).updateOne(any(Query.class), any(UpdateDefinition.class));
+        verify(taskOps, times(2)).remove(any(Query.class));
+        verify(taskOps, times(1)).execute();
+        verify(spaceOps, times(1)).execute();
+    }
+
+    @Test
+    void shouldRunDailyStagesServerSideOnlyAtMidnight() {
+        when(mongoTemplate.stream(any(Query.class), eq(Task.class))).thenReturn(Stream.empty());
+
+        schedulerService.runMaintenance(hourly);
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(UpdateDefinition.class), eq(User.class));
+
+        when(mongoTemplate.stream(any(Query.class), eq(Task.class))).thenReturn(Stream.empty());
+        schedulerService.runMaintenance(midnight);
+        verify(mongoTemplate, times(2)).updateMulti(any(Query.class), any(UpdateDefinition.class), eq(User.class));
+        verify(userRepository, never()).findAll();
+    }
+
+    @Test
+    void shouldMarkServerSideStagesSoResumeDoesNotApplyThemTwice() {
+        when(mongoTemplate.stream(any(Query.class), eq(Task.class))).thenReturn(Stream.empty());
+
+        schedulerService.runMaintenance(midnight);
+
+        // Filter und $set tragen dieselbe Markierung: ein nach Absturz vor stageCompleted wiederholtes updateMany trifft niemanden doppelt
+        for (String stage : List.of("HpPenaltyStage", "StreakRestartStage")) {
+            String marker = "maintenanceStages." + stage;
+            verify(mongoTemplate).updateMulti(
+                    argThat(query -> query.getQueryObject().toJson().contains("\"" + marker + "\": {\"$ne\": \"run\"}")),
+                    argThat((UpdateDefinition update) -> update.toString().contains(marker)),
+                    eq(User.class));
+        }
+    }
+
+    @Test
+    void shouldVisitEveryUserOnceInJvmMode() {
+        ReflectionTestUtils.setField(schedulerService, "serverSide", false);
+        User broke = User.builder().id("u1").health(0).coins(3).streakBroken(true).build();
+        User healthy = User.builder().id("u2").health(5).coins(3).build();
+        when(mongoTemplate.stream(any(Query.class), eq(User.class))).thenReturn(Stream.of(broke, healthy));
+        when(taskRepository.findOverdueTasks(any(), anyList())).thenReturn(List.of());
+
+        schedulerService.runMaintenance(midnight);
+
+        assertThat(broke.getCoins()).isZero();
+        assertThat(broke.isStreakBroken()).isFalse();
+        verify(userOps, times(1)).updateOne(any(Query.class), any(UpdateDefinition.class));
+        verify(userOps, times(1)).execute();
+        verify(taskRepository, times(2)).findOverdueTasks(any(), anyList());
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(UpdateDefinition.class), eq(User.class));
+    }
+
+    @Test
+    void shouldSkipPartitionsLeasedByOtherNodes() {
+        when(runStore.plan(any(MaintenanceTick.class), anyInt())).thenReturn(run(midnight, "000000000000000000000002"));
+        when(leaseService.tryAcquire("run/0")).thenReturn(Optional.empty());
+        when(mongoTemplate.stream(any(Query.class), eq(Task.class))).thenReturn(Stream.empty());
+
+        schedulerService.runMaintenance(midnight);
+
+        // Nur die eigene Partition: je ein updateMany pro täglicher Stage, danach als erledigt markiert
+        verify(mongoTemplate, times(2)).updateMulti(any(Query.class), any(UpdateDefinition.class), eq(User.class));
+        verify(mongoTemplate, times(1)).stream(any(Query.class), eq(Task.class));
+        verify(leaseService, times(1)).complete(any(Lease.class));
+        verify(leaseService, never()).complete(argThat(lease -> lease.name().equals("run/0")));
+    }
+
+    @Test
+    void shouldDropBatchWhenLeaseIsLost() {
+        User user = User.builder().id("u1").health(10).coins(10).streak(3).build();
+        when(mongoTemplate.stream(any(Query.class), eq(Task.class)))
+                .thenReturn(Stream.of(overdueTask("t1", "u1", Frequency.DAILY, false)));
+        when(userRepository.findAllById(Set.of("u1"))).thenReturn(List.of(user));
+        when(leaseService.isValid(any())).thenReturn(false);
+
+        schedulerService.runMaintenance(hourly);
+
+        verify(userOps, never()).execute();
+        verify(leaseService, never()).complete(any(Lease.class));
+        verify(leaseService, times(1)).release(any(Lease.class));
+    }
+
+    @Test
+    void shouldProcessAllPartitionsOfOneNode() {
+        when(runStore.plan(any(MaintenanceTick.class), anyInt()))
+                .thenReturn(run(hourly, "000000000000000000000002", "000000000000000000000004"));
+        when(mongoTemplate.stream(any(Query.class), eq(Task.class))).thenAnswer(invocation -> Stream.empty());
+
+        schedulerService.runMaintenance(hourly);
+
+        verify(mongoTemplate, times(3)).stream(any(Query.class), eq(Task.class));
+        verify(leaseService, times(3)).complete(any(Lease.class));
+        verify(runStore, times(3)).partitionFinished(eq("run"), anyInt());
+    }
+
+    @Test
+    void shouldReportScannedAndWrittenDocuments() {
+        when(mongoTemplate.updateMulti(any(Query.class), any(UpdateDefinition.class), eq(User.class)))
+                .thenReturn(UpdateResult.acknowledged(4, 3L, null));
+        when(mongoTemplate.stream(any(Query.class), eq(Task.class))).thenReturn(Stream.empty());
+
+        JobResult result = schedulerService.runMaintenance(midnight);
+
+        // Zwei tägliche updateManys mit je 4 gematchten und 3 geänderten Usern
+        assertThat(result).isEqualTo(new JobResult(8, 6));
+    }
+
+    @Test
+    void shouldOnlyTriggerCronRunThroughJobRunner() {
+        schedulerService.runMaintenance();
+
+        verify(jobRunner).trigger(eq("maintenance"), any());
+        verifyNoInteractions(runStore);
+    }
+
+    @Test
+    void shouldCheckpointEveryPageAfterFlushing() {
+        User first = User.builder().id("u1").health(10).coins(10).build();
+        User second = User.builder().id("u2").health(10).coins(10).build();
+        when(mongoTemplate.stream(any(Query.class), eq(Task.class))).thenReturn(Stream.of(
+                overdueTask("t1", "u1", Frequency.DAILY, false), overdueTask("t2", "u2", Frequency.DAILY, false)));
+        when(userRepository.findAllById(Set.of("u1"))).thenReturn(List.of(first));
+        when(userRepository.findAllById(Set.of("u2"))).thenReturn(List.of(second));
+
+        schedulerService.runMaintenance(hourly);
+
+        // pageSize 1: zwei Seiten, jede einzeln geschrieben und danach festgehalten
+        verify(userOps, times(2)).execute();
+        verify(runStore).checkpoint(eq("run"), eq(0), eq("u1"), eq(1L), anyLong(), anyLong());
+        verify(runStore).checkpoint(eq("run"), eq(0), eq("u2"), eq(1L), anyLong(), anyLong());
+    }
+
+    @Test
+    void shouldResumeInterruptedRunFromCheckpoint() {
+        MaintenanceRun interrupted = run(midnight);
+        interrupted.setPartitions(List.of(PartitionProgress.builder().index(0)
+                .lastUserId("000000000000000000000007")
+                .completedStages(List.of("HpPenaltyStage", "StreakRestartStage"))
+                .build()));
+        when(runStore.unfinishedSince(any())).thenReturn(List.of(interrupted));
+        when(runStore.findById("run")).thenReturn(Optional.of(interrupted));
+        when(mongoTemplate.stream(any(Query.class), eq(Task.class))).thenReturn(Stream.empty());
+
+        schedulerService.resumeUnfinished();
+
+        // Tägliche Stages liefen schon, der Sweep beginnt hinter dem letzten User
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(UpdateDefinition.class), eq(User.class));
+        verify(mongoTemplate).stream(argThat(query -> query.getQueryObject().toString().contains("000000000000000000000008")), eq(Task.class));
+        verify(runStore).partitionFinished("run", 0);
+    }
+
+    @Test
+    void shouldOnlyVisitUsersOfTheCurrentZoneBucket() {
+        MaintenanceTick bucket = new MaintenanceTick(Instant.now(), LocalDate.now(), true, List.of("Europe/Berlin"));
+        when(mongoTemplate.stream(any(Query.class), eq(User.class))).thenReturn(Stream.empty());
+
+        schedulerService.runMaintenance(bucket);
+
+        // Tasks kennen die Zone nicht: gesweept wird über die User des Buckets, auch die updateManys sind gefiltert
+        verify(mongoTemplate, never()).stream(any(Query.class), eq(Task.class));
+        verify(mongoTemplate).stream(argThat(query -> query.getQueryObject().toString().contains("Europe/Berlin")), eq(User.class));
+        verify(mongoTemplate, times(2)).updateMulti(argThat(query -> query.getQueryObject().toString().contains("Europe/Berlin")),
+                any(UpdateDefinition.class), eq(User.class));
+    }
+
+    @Test
+    void shouldDelegateDeadlinesToAggregationEngine() {
+        ReflectionTestUtils.setField(schedulerService, "deadlineEngine", "aggregation");
+        when(deadlineAggregation.run(any(), any(), anyString(), anyInt(), any(), any()))
+                .thenReturn(new DeadlineAggregation.Result(3, 1, 2, 0));
+
+        schedulerService.runMaintenance(hourly);
+
+        verify(deadlineAggregation).run(eq(hourly), any(), eq("run"), eq(1), any(), any());
+        verify(mongoTemplate, never()).stream(any(Query.class), eq(Task.class));
+        verify(runStore).stageCompleted("run", 0, "DeadlineAggregation", 1L);
+    }
+
+    @Test
+    void shouldPenalizeMissedDeadlineEvenIfJvmStagesTouchedUserInSameRun() {
+        DeadlineAggregation realAggregation = new DeadlineAggregation(mongoTemplate);
+        schedulerService = new SchedulerService(taskRepository, userRepository, mongoTemplate, List.of(
+                new HpPenaltyStage(), new StreakRestartStage(), new DeadlineStage()), leaseService, new SweepExecutor(2, 2), runStore, taskScheduler, realAggregation, jobRunner, lazyEvaluation);
+        ReflectionTestUtils.setField(schedulerService, "pageSize", 10);
+        ReflectionTestUtils.setField(schedulerService, "bulkSize", 100);
+        ReflectionTestUtils.setField(schedulerService, "serverSide", false);
+        ReflectionTestUtils.setField(schedulerService, "partitions", 1);
+        ReflectionTestUtils.setField(schedulerService, "deadlineEngine", "aggregation");
+
+        MongoConverter converter = mock(MongoConverter.class);
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        when(converter.convertToMongoType(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(mongoTemplate.getCollectionName(any(Class.class))).thenReturn("collection");
+        when(mongoTemplate.updateMulti(any(Query.class), any(UpdateDefinition.class), eq(Task.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+        // Derselbe User: HP bei 0 (JVM-Stage) und ein verpasster Task (Deadline-Aggregation)
+        User broke = User.builder().id("u1").health(0).coins(10).streak(3).build();
+        when(mongoTemplate.stream(any(Query.class), eq(User.class))).thenReturn(Stream.of(broke));
+        when(taskRepository.findOverdueTasks(any(), anyList())).thenReturn(List.of());
+        when(mongoTemplate.aggregateStream(any(Aggregation.class), anyString(), eq(Document.class)))
+                .thenReturn(Stream.of(new Document("_id", "u1").append("penalize", true)));
+
+        schedulerService.runMaintenance(midnight);
+
+        // Der JVM-Pass markiert den User mit lastMaintenanceRun ...
+        verify(userOps).updateOne(argThat(query -> query.getQueryObject().containsKey("lastMaintenanceRun")),
+                argThat((UpdateDefinition update) -> update.toString().contains("lastMaintenanceRun")
+                        && !update.toString().contains("maintenanceStages")));
+        // ... die Deadline-Strafe prüft nur ihre eigene Markierung und greift trotzdem
+        verify(mongoTemplate).updateMulti(argThat(query -> query.getQueryObject().containsKey("maintenanceStages.DeadlineAggregation")
+                        && !query.getQueryObject().containsKey("lastMaintenanceRun")),
+                any(UpdateDefinition.class), eq(User.class));
+    }
+
+    @Test
+    void shouldSkipPenaltyStagesInLazyMode() {
+        when(lazyEvaluation.isLazy()).thenReturn(true);
+
+        assertThat(schedulerService.runMaintenance(midnight)).isEqualTo(JobResult.EMPTY);
+
+        verifyNoInteractions(runStore);
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(UpdateDefinition.class), eq(User.class));
+    }
+}
@@ -10,6 +10,8 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.dao.OptimisticLockingFailureException;
 
 import java.util.List;
 import java.util.Optional;
@@ -24,6 +26,12 @@ class ShopServiceTest {
     @Mock
     private UserRepository userRepository;
 
+    @Mock
+    private EffectExpiryService effectExpiryService;
+
+    @Spy
+    private ConflictRetry conflictRetry = new ConflictRetry(3, 0, 0);
+
     @InjectMocks
     private ShopService shopService;
 
@@ -72,6 +80,7 @@ class ShopServiceTest {
         assertThat(result.isOtherBonusActive()).isFalse();
         assertThat(mockUser.getCoins()).isEqualTo(10);
         verify(userRepository).save(mockUser);
+        verify(effectExpiryService).effectScheduled(mockUser);
     }
 
     @Test
@@ -90,4 +99,24 @@ class ShopServiceTest {
         assertThat(result.isSuccess()).isFalse();
         verify(userRepository, never()).save(any());
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldReReadUserWhenPurchaseConflicts() {
+        User fresh = new User();
+        fresh.setId("user123");
+        fresh.setCoins(150); // parallel gutgeschrieben
+        when(userRepository.findById("user123")).thenReturn(Optional.of(mockUser), Optional.of(fresh));
+        when(bonusRepository.findById("bonus123")).thenReturn(Optional.of(mockBonus));
+        when(mockBonus.isAffordable(anyInt())).thenReturn(true);
+        when(mockBonus.applyTo(any())).thenReturn(new BonusBuyResponse(true, false));
+        when(userRepository.save(mockUser)).thenThrow(new OptimisticLockingFailureException("version"));
+
+        BonusBuyResponse result = shopService.sellBonus("user123", "bonus123");
+
+        assertThat(result.isSuccess()).isTrue();
+        assertThat(fresh.getCoins()).isEqualTo(50);
+        verify(userRepository).save(fresh);
+        verify(effectExpiryService).effectScheduled(fresh);
+        verify(effectExpiryService, never()).effectScheduled(mockUser);
+    }
+}
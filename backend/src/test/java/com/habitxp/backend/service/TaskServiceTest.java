@@ -1,9 +1,15 @@
 package com.habitxp.backend.service;
 
+import com.habitxp.backend.dto.BatchCompletionResponse;
 import com.habitxp.backend.dto.CompletionResponse;
+import com.habitxp.backend.dto.SyncRequest;
+import com.habitxp.backend.dto.SyncResponse;
+import com.habitxp.backend.model.Completion;
 import com.habitxp.backend.model.Frequency;
+import com.habitxp.backend.model.PeriodCalendar;
 import com.habitxp.backend.model.Space;
 import com.habitxp.backend.model.Task;
+import com.habitxp.backend.model.TaskCompletion;
 import com.habitxp.backend.model.User;
 import com.habitxp.backend.repository.SpaceRepository;
 import com.habitxp.backend.repository.TaskRepository;
@@ -13,11 +19,18 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -37,6 +50,16 @@ class TaskServiceTest {
     @Mock
     private AIAgentService aiAgentService;
 
+    @Mock
+    private LazyEvaluationService lazyEvaluation;
+    @Mock
+    private CompletionHistoryService completionHistory;
+    @Mock
+    private CompletionEngine completionEngine;
+
+    @Spy
+    private ConflictRetry conflictRetry = new ConflictRetry(3, 0, 0);
+
     @InjectMocks
     private TaskService taskService;
 
@@ -46,6 +69,7 @@ class TaskServiceTest {
     @BeforeEach
     void setup() {
         MockitoAnnotations.openMocks(this);
+        when(lazyEvaluation.evaluate(any())).thenAnswer(invocation -> invocation.getArgument(0));
 
         Task task = new Task();
         task = new Task();
@@ -73,6 +97,22 @@ class TaskServiceTest {
         mockUser.setTaskLimit(2);
     }
 
+    // ##### read Tasks #####
+    @Test
+    void shouldDeriveStatusWithoutWritingOnRead() {
+        mockTask.setCompleted(true); // aus einer vergangenen Periode
+        when(taskRepository.findByUserId("user123")).thenReturn(List.of(mockTask));
+        when(taskRepository.findById("task123")).thenReturn(Optional.of(mockTask));
+
+        List<Task> tasks = taskService.getTasksByUser("user123");
+        taskService.getTaskById("task123");
+        taskService.getTaskStatus("task123");
+
+        assertThat(tasks.get(0).isCompleted()).isFalse();
+        verify(taskRepository, never()).save(any());
+        verify(taskRepository, never()).saveAll(any());
+    }
+
     // ##### create Task #####
     @Test
     void shouldCreateTaskSuccessfully() {
@@ -119,6 +159,15 @@ class TaskServiceTest {
         assertThat(ex.getReason()).contains("User not found");
     }
 
+    @Test
+    void shouldRejectInvalidDurationOnCreate() {
+        mockTask.setDuration("viel");
+
+        var ex = assertThrows(ResponseStatusException.class, () -> taskService.createTask(mockTask));
+        assertThat(ex.getStatusCode().value()).isEqualTo(400);
+        verify(taskRepository, never()).save(any());
+    }
+
     // ##### update Task #####
     @Test
     void shouldUpdateTaskSuccessfully() {
@@ -144,6 +193,19 @@ class TaskServiceTest {
         assertThat(result.getTimes()).isEqualTo(3);
         assertThat(result.getSpaceId()).isEqualTo("Gesundheit");
         verify(taskRepository, atLeastOnce()).save(any(Task.class));
+        assertThat(mockTask.getParsedDuration().minutes()).isEqualTo(45);
+    }
+
+    @Test
+    void shouldRejectInvalidDurationOnUpdate() {
+        Task updated = new Task();
+        updated.setId("task123");
+        updated.setDuration("10 Minuten");
+
+        assertThatThrownBy(() -> taskService.updateTask(updated))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("Invalid duration");
+        verify(taskRepository, never()).save(any());
     }
 
     // ##### delete Task #####
@@ -160,6 +222,7 @@ class TaskServiceTest {
         // Assert
         verify(spaceRepository).save(any(Space.class));
         verify(taskRepository).deleteById("task123");
+        verify(completionHistory).deleteHistory("task123");
     }
 
     @Test
@@ -177,16 +240,12 @@ class TaskServiceTest {
     @Test
     void shouldCompleteTaskAndApplyRewardsSuccessfully() {
         // Arrange
-        when(taskRepository.findById("task123")).thenReturn(Optional.of(mockTask));
-        when(userRepository.findById("user123")).thenReturn(Optional.of(mockUser));
-        when(taskRepository.findByUserId("user123")).thenReturn(List.of(mockTask));
-        when(taskRepository.save(any())).thenReturn(mockTask);
-        when(userRepository.save(any())).thenReturn(mockUser);
-
-        // Simuliere erfolgreiche Aufgabe
-        doReturn(true).when(mockTask).markAsCompleted(mockUser);
-        doReturn(true).when(mockTask).isPeriodCompleted();
-        doReturn(1).when(mockTask).remainingCompletions();
+        mockTask.setCompleted(true);
+        mockTask.setPeriodKey(PeriodCalendar.currentKey(Frequency.DAILY));
+        mockTask.setPeriodCount(1);
+        mockUser.setLevel(2);
+        when(completionEngine.complete("task123", "user123"))
+                .thenReturn(new CompletionEngine.Outcome(mockTask, true, mockUser, true));
 
         // Act
         CompletionResponse response = taskService.completeTask("task123", "user123");
@@ -194,56 +253,254 @@ class TaskServiceTest {
         // Assert
         assertThat(response.isSuccess()).isTrue();
         assertThat(response.isCompleted()).isTrue();
-        assertThat(response.isLevelup()).isFalse(); // kein Level-Up simuliert
-        assertThat(response.getRemaining()).isEqualTo(1);
+        assertThat(response.isLevelup()).isTrue();
+        assertThat(response.getRemaining()).isZero();
         assertThat(response.getRewardXP()).isEqualTo(10);
         assertThat(response.getRewardCoins()).isEqualTo(5);
+        assertThat(response.getProfile().getLevel()).isEqualTo(2);
+        assertThat(response.getProfile().getCoins()).isEqualTo(50);
+
+        // Erledigen läuft komplett über die Engine, ohne Lesen und Speichern über die Repositories
+        verify(taskRepository, never()).save(any());
+        verify(userRepository, never()).save(any());
+        verify(userRepository, never()).findById(any());
+        verify(taskRepository, never()).findByUserId(any());
+    }
+
+    @Test
+    void shouldOmitProfileWhenNoRewardWasCredited() {
+        mockTask.setTimes(3);
+        when(completionEngine.complete("task123", "user123"))
+                .thenReturn(new CompletionEngine.Outcome(mockTask, true, null, false));
 
-        verify(taskRepository, times(2)).save(mockTask);
-        verify(userRepository, times(1)).save(mockUser);
+        CompletionResponse response = taskService.completeTask("task123", "user123");
+
+        assertThat(response.isSuccess()).isTrue();
+        assertThat(response.isCompleted()).isFalse();
+        assertThat(response.getProfile()).isNull();
     }
 
     @Test
-    void shouldThrowIfTaskNotFound() {
+    void shouldRecordCompletionInHistory() {
+        mockTask.getCompletions().add(Completion.builder()
+                .timestamp(LocalDateTime.now()).userId("user123").durationMinutes(30).build());
+        when(completionEngine.complete("task123", "user123"))
+                .thenReturn(new CompletionEngine.Outcome(mockTask, true, null, false));
+
+        taskService.completeTask("task123", "user123");
+
+        verify(completionHistory).recordAll(argThat(entries -> entries.size() == 1
+                && "user123".equals(entries.get(0).getUserId()) && entries.get(0).getDurationMinutes() == 30));
+    }
+
+    @Test
+    void shouldRecordWholePeriodSoLostEntriesAreRepaired() {
+        Completion earlier = Completion.builder().timestamp(LocalDateTime.now().minusHours(2)).userId("user123").durationMinutes(30).build();
+        mockTask.getCompletions().add(earlier);
+        mockTask.getCompletions().add(Completion.builder().timestamp(LocalDateTime.now()).userId("user123").durationMinutes(30).build());
+        when(completionEngine.complete("task123", "user123"))
+                .thenReturn(new CompletionEngine.Outcome(mockTask, true, null, false));
+
+        taskService.completeTask("task123", "user123");
+
+        verify(completionHistory).recordAll(argThat(entries -> entries.size() == 2
+                && entries.get(0).equals(TaskCompletion.of("task123", earlier))));
+    }
+
+    @Test
+    void shouldRepairMissingHistoryOnRejectedRetry() {
+        Completion counted = Completion.builder().timestamp(LocalDateTime.now()).userId("user123").durationMinutes(30).build();
+        mockTask.getCompletions().add(counted);
+        when(completionEngine.complete("task123", "user123"))
+                .thenReturn(new CompletionEngine.Outcome(mockTask, false, null, false));
+        when(completionHistory.recorded(any())).thenReturn(Set.of());
+
+        taskService.completeTask("task123", "user123");
+
+        verify(completionHistory).recordAll(List.of(TaskCompletion.of("task123", counted)));
+    }
+
+    @Test
+    void shouldNotRecordHistoryWhileCooldownIsActive() {
+        when(completionEngine.complete("task123", "user123"))
+                .thenReturn(new CompletionEngine.Outcome(mockTask, false, null, false));
+
+        CompletionResponse response = taskService.completeTask("task123", "user123");
+
+        assertThat(response.isSuccess()).isFalse();
+        verify(completionHistory, never()).recordAll(any());
+    }
+
+    @Test
+    void shouldEvaluateLazyUserBeforeCompleting() {
+        when(lazyEvaluation.isLazy()).thenReturn(true);
+        when(userRepository.findById("user123")).thenReturn(Optional.of(mockUser));
+        when(completionEngine.complete("task123", "user123"))
+                .thenReturn(new CompletionEngine.Outcome(mockTask, true, null, false));
+
+        taskService.completeTask("task123", "user123");
+
+        var order = inOrder(lazyEvaluation, completionEngine);
+        order.verify(lazyEvaluation).evaluate(mockUser);
+        order.verify(completionEngine).complete("task123", "user123");
+    }
+
+    @Test
+    void shouldRejectHistoryOfUnknownTask() {
         when(taskRepository.findById("invalidId")).thenReturn(Optional.empty());
 
-        assertThatThrownBy(() -> taskService.completeTask("invalidId", "user123"))
+        assertThatThrownBy(() -> taskService.getCompletionHistory("invalidId", "user123", 10))
                 .isInstanceOf(ResponseStatusException.class)
                 .hasMessageContaining("Task not found");
     }
 
     @Test
-    void shouldThrowIfUserNotFound() {
+    void shouldHideHistoryOfOtherUsersTask() {
         when(taskRepository.findById("task123")).thenReturn(Optional.of(mockTask));
-        when(userRepository.findById("user123")).thenReturn(Optional.empty());
 
-        assertThatThrownBy(() -> taskService.completeTask("task123", "user123"))
+        assertThatThrownBy(() -> taskService.getCompletionHistory("task123", "intruder", 10))
                 .isInstanceOf(ResponseStatusException.class)
-                .hasMessageContaining("User not found");
+                .hasMessageContaining("Task not found");
+        verify(completionHistory, never()).history(any(), anyInt());
     }
 
-    // ##### apply Rewards to User #####
     @Test
-    void shouldApplyRewardsToUserCorrectly() {
-        // Arrange
-        mockTask.setRewardXP(15);
-        mockTask.setRewardCoins(20);
-        mockTask.setFrequency(Frequency.DAILY);
+    void shouldReturnHistoryOfOwnTask() {
+        List<Completion> history = List.of(Completion.builder().timestamp(LocalDateTime.now()).userId("user123").durationMinutes(30).build());
+        when(taskRepository.findById("task123")).thenReturn(Optional.of(mockTask));
+        when(completionHistory.history("task123", 10)).thenReturn(history);
+
+        assertThat(taskService.getCompletionHistory("task123", "user123", 10)).isEqualTo(history);
+    }
+
+    @Test
+    void shouldThrowIfTaskNotFound() {
+        when(completionEngine.complete("invalidId", "user123"))
+                .thenThrow(new ResponseStatusException(HttpStatus.NOT_FOUND, "Task not found"));
+
+        assertThatThrownBy(() -> taskService.completeTask("invalidId", "user123"))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("Task not found");
+        verify(completionHistory, never()).recordAll(any());
+    }
+
+    // ##### complete Batch #####
+    @Test
+    void shouldCompleteBatchAndAggregateRewards() {
+        mockTask.setCompleted(true);
+        mockTask.setPeriodKey(PeriodCalendar.currentKey(Frequency.DAILY));
+        mockTask.setPeriodCount(1);
+        mockTask.getCompletions().add(Completion.builder().timestamp(LocalDateTime.now()).userId("user123").durationMinutes(30).build());
+        mockUser.setLevel(2);
+        when(completionEngine.completeAll(List.of("task123", "gone"), "user123"))
+                .thenReturn(new CompletionEngine.BatchOutcome(Arrays.asList(
+                        new CompletionEngine.Outcome(mockTask, true, null, false), null), mockUser, true));
+
+        BatchCompletionResponse response = taskService.completeTasks(List.of("task123", "gone"), "user123");
+
+        assertThat(response.getResults()).hasSize(2);
+        assertThat(response.getResults().get(0).getResult().isSuccess()).isTrue();
+        assertThat(response.getResults().get(1).getError()).isEqualTo("Task not found");
+        assertThat(response.isLevelup()).isTrue();
+        assertThat(response.getRewardXP()).isEqualTo(10);
+        assertThat(response.getProfile().getLevel()).isEqualTo(2);
+        verify(completionHistory).recordAll(argThat(list -> list.size() == 1));
+        verify(userRepository, never()).save(any());
+    }
+
+    @Test
+    void shouldRejectEmptyOrOversizedBatch() {
+        assertThatThrownBy(() -> taskService.completeTasks(List.of(), "user123"))
+                .isInstanceOf(ResponseStatusException.class);
+        List<String> tooMany = Collections.nCopies(TaskService.MAX_BATCH_SIZE + 1, "task123");
+        assertThatThrownBy(() -> taskService.completeTasks(tooMany, "user123"))
+                .isInstanceOf(ResponseStatusException.class);
+        verifyNoInteractions(completionEngine);
+    }
+
+    // ##### Offline-Sync #####
+    private SyncRequest.Entry syncEntry(String taskId, LocalDateTime completedAt) {
+        SyncRequest.Entry entry = new SyncRequest.Entry();
+        entry.setTaskId(taskId);
+        entry.setCompletedAt(completedAt);
+        return entry;
+    }
+
+    @Test
+    void shouldSyncOnlyNewCompletionsInTimestampOrder() {
+        LocalDateTime morning = LocalDate.now().atStartOfDay().plusHours(8).plusNanos(123_456_789);
+        LocalDateTime earlier = morning.minusMinutes(40);
+        String recordedId = TaskCompletion.of("task123", Completion.builder().timestamp(earlier.truncatedTo(ChronoUnit.MILLIS)).build()).getId();
+        when(completionHistory.recorded(any())).thenReturn(Set.of(recordedId));
+        mockTask.setCompleted(true);
+        mockTask.setLastCompletedAt(morning.truncatedTo(ChronoUnit.MILLIS));
+        TaskCompletion accepted = TaskCompletion.of("task123", Completion.builder().timestamp(morning.truncatedTo(ChronoUnit.MILLIS)).build());
+        when(completionEngine.sync(eq("user123"), any())).thenAnswer(invocation -> {
+            List<CompletionEngine.SyncEntry> entries = invocation.getArgument(1);
+            return new CompletionEngine.SyncOutcome(List.of(mockTask), List.of(accepted),
+                    List.of(new CompletionEngine.Rejection(entries.get(0), "Cooldown")), 10, 5, mockUser, false);
+        });
+
+        SyncResponse response = taskService.syncCompletions(List.of(
+                syncEntry("task123", morning),
+                syncEntry("task123", morning), // doppelt gesendet
+                syncEntry("task123", earlier), // schon beim letzten Sync übertragen
+                syncEntry("other", morning.minusMinutes(5)),
+                syncEntry("task123", LocalDateTime.now().plusHours(1))), "user123");
+
+        verify(completionEngine).sync(eq("user123"), argThat(entries -> entries.size() == 2
+                && entries.get(0).taskId().equals("other")
+                && entries.get(1).at().equals(morning.truncatedTo(ChronoUnit.MILLIS))));
+        verify(completionHistory).recordAll(List.of(accepted));
+        assertThat(response.getAccepted()).isEqualTo(1);
+        assertThat(response.getDuplicates()).isEqualTo(2);
+        assertThat(response.getRejected()).extracting(SyncResponse.Rejection::getReason)
+                .containsExactlyInAnyOrder("Timestamp in the future", "Cooldown");
+        // Abgelehnte Einträge tragen den Zeitpunkt des Clients, nicht den gekürzten
+        assertThat(response.getRejected()).extracting(SyncResponse.Rejection::getCompletedAt).contains(morning.minusMinutes(5));
+        assertThat(response.getTasks()).singleElement().satisfies(delta -> {
+            assertThat(delta.getTaskId()).isEqualTo("task123");
+            assertThat(delta.getLastCompletedAt()).isEqualTo(morning.truncatedTo(ChronoUnit.MILLIS));
+        });
+        assertThat(response.getProfile()).isNotNull();
+    }
+
+    @Test
+    void shouldAnswerRepeatedSyncWithoutTouchingTasks() {
+        LocalDateTime at = LocalDateTime.now().minusMinutes(1).truncatedTo(ChronoUnit.MILLIS);
+        when(completionHistory.recorded(any())).thenReturn(Set.of(
+                TaskCompletion.of("task123", Completion.builder().timestamp(at).build()).getId()));
+
+        SyncResponse response = taskService.syncCompletions(List.of(syncEntry("task123", at)), "user123");
 
+        assertThat(response.getDuplicates()).isEqualTo(1);
+        assertThat(response.getTasks()).isEmpty();
+        verifyNoInteractions(completionEngine);
+    }
+
+    @Test
+    void shouldRejectEmptyOrOversizedSync() {
+        assertThatThrownBy(() -> taskService.syncCompletions(List.of(), "user123"))
+                .isInstanceOf(ResponseStatusException.class);
+        List<SyncRequest.Entry> tooMany = Collections.nCopies(TaskService.MAX_SYNC_SIZE + 1, syncEntry("task123", LocalDateTime.now()));
+        assertThatThrownBy(() -> taskService.syncCompletions(tooMany, "user123"))
+                .isInstanceOf(ResponseStatusException.class);
+        verifyNoInteractions(completionEngine);
+    }
+
+    // ##### Streak-Frequenz #####
+    @Test
+    void shouldRefreshStreakFrequencyWhenTasksChange() {
+        mockTask.setSpaceId(null);
+        when(userRepository.findById("user123")).thenReturn(Optional.of(mockUser));
+        when(taskRepository.save(mockTask)).thenReturn(mockTask);
+        when(taskRepository.findById("task123")).thenReturn(Optional.of(mockTask));
         when(taskRepository.findByUserId("user123")).thenReturn(List.of(mockTask));
-        mockUser.setLastStreakUpdate(LocalDate.now().minusDays(2));
-        mockUser.setCoins(50);
-        mockUser.setCurrentXP(0);
-        mockUser.setStreak(3);
 
-        // Act
-        taskService.applyRewardsToUser(mockUser, mockTask);
+        taskService.createTask(mockTask);
+        taskService.deleteTask("task123");
 
-        // Assert
-        assertThat(mockUser.getCoins()).isEqualTo(70);
-        assertThat(mockUser.getStreak()).isEqualTo(4);
-        assertThat(mockUser.getLastStreakUpdate()).isEqualTo(LocalDate.now());
-        verify(userRepository).save(mockUser);
+        verify(completionEngine, times(2)).refreshStreakFrequency("user123", List.of(mockTask));
     }
 
-}
\ No newline at end of file
+}
@@ -10,12 +10,16 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -25,6 +29,12 @@ class UserServiceTest {
     @Mock
     private TaskRepository taskRepository;
 
+    @Mock
+    private LazyEvaluationService lazyEvaluation;
+
+    @Spy
+    private ConflictRetry conflictRetry = new ConflictRetry(3, 0, 0);
+
     @InjectMocks
     private UserService userService;
 
@@ -33,6 +43,7 @@ class UserServiceTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        when(lazyEvaluation.evaluate(any())).thenAnswer(invocation -> invocation.getArgument(0));
         mockUser = new User();
         mockUser.setId("user123");
         mockUser.setUsername("tester");
@@ -55,6 +66,14 @@ class UserServiceTest {
         assertThat(result).isEqualTo(mockUser);
     }
 
+    @Test
+    void shouldRejectUnknownTimeZone() {
+        mockUser.setZoneId("Mars/Olympus");
+        assertThatThrownBy(() -> userService.updateUser(mockUser))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("Unknown time zone");
+    }
+
     @Test
     void shouldThrowWhenUserNotFound() {
         when(userRepository.findById("user123")).thenReturn(Optional.empty());
@@ -81,11 +100,63 @@ class UserServiceTest {
 
     @Test
     void shouldUpdateUser() {
+        when(userRepository.findById("user123")).thenReturn(Optional.of(mockUser));
         when(userRepository.save(mockUser)).thenReturn(mockUser);
         User result = userService.updateUser(mockUser);
         assertThat(result).isEqualTo(mockUser);
     }
 
+    @Test
+    void shouldOnlyTakeProfileFieldsFromClient() {
+        User stale = new User();
+        stale.setId("user123");
+        stale.setUsername("renamed");
+        stale.setZoneId("Europe/Berlin");
+        stale.setCoins(0);
+        stale.setHealth(1);
+        when(userRepository.findById("user123")).thenReturn(Optional.of(mockUser));
+        when(userRepository.save(any(User.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        User result = userService.updateUser(stale);
+
+        // Serverseitig gepflegte Felder bleiben; fehlende Profilfelder werden nicht gelöscht
+        assertThat(result).isSameAs(mockUser);
+        assertThat(result.getUsername()).isEqualTo("renamed");
+        assertThat(result.getZoneId()).isEqualTo("Europe/Berlin");
+        assertThat(result.getCoins()).isEqualTo(200);
+        assertThat(result.getHealth()).isEqualTo(25);
+        assertThat(result.getStreak()).isEqualTo(3);
+    }
+
+    @Test
+    void shouldRereadUserWhenUpdateConflicts() {
+        User fresh = new User();
+        fresh.setId("user123");
+        fresh.setCoins(250);
+        User changes = new User();
+        changes.setId("user123");
+        changes.setFirstName("Ada");
+        when(userRepository.findById("user123")).thenReturn(Optional.of(mockUser), Optional.of(fresh));
+        when(userRepository.save(any(User.class)))
+                .thenThrow(new OptimisticLockingFailureException("version"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        User result = userService.updateUser(changes);
+
+        assertThat(result).isSameAs(fresh);
+        assertThat(result.getFirstName()).isEqualTo("Ada");
+        assertThat(result.getCoins()).isEqualTo(250);
+    }
+
+    @Test
+    void shouldNotCreateUserOnUpdate() {
+        when(userRepository.findById("user123")).thenReturn(Optional.empty());
+        assertThatThrownBy(() -> userService.updateUser(mockUser))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("User not found");
+        verify(userRepository, never()).save(any(User.class));
+    }
+
     @Test
     void shouldDeleteUser() {
         userService.deleteUser("user123");
@@ -0,0 +1,63 @@
+package com.habitxp.backend.unit;
+
+import com.habitxp.backend.security.JwtAuthenticationFilter;
+import com.habitxp.backend.security.JwtService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * <h1>Unit-Tests für die Rollen aus {@link JwtAuthenticationFilter}</h1>
+ *
+ * <h2>Testziel:</h2>
+ * Nur konfigurierte Admin-User bekommen die Rolle ADMIN, die /scheduler/** voraussetzt.
+ */
+public class JwtAuthenticationFilterTest {
+
+    private JwtService jwtService;
+    private JwtAuthenticationFilter filter;
+
+    @BeforeEach
+    void setup() {
+        jwtService = mock(JwtService.class);
+        filter = new JwtAuthenticationFilter(jwtService);
+        ReflectionTestUtils.setField(filter, "adminUserIds", Set.of("admin1"));
+    }
+
+    @AfterEach
+    void clear() {
+        SecurityContextHolder.clearContext();
+    }
+
+    private Authentication authenticate(String userId) throws Exception {
+        when(jwtService.extractUserId("token")).thenReturn(userId);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/scheduler/runs");
+        request.addHeader("Authorization", "Bearer token");
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+        return SecurityContextHolder.getContext().getAuthentication();
+    }
+
+    @Test
+    void shouldGrantAdminRoleToConfiguredUser() throws Exception {
+        assertThat(authenticate("admin1").getAuthorities()).extracting(GrantedAuthority::getAuthority)
+                .containsExactly("ROLE_ADMIN");
+    }
+
+    @Test
+    void shouldNotGrantAnyRoleToRegularUser() throws Exception {
+        assertThat(authenticate("user123").getAuthorities()).isEmpty();
+    }
+}